@@ -8,14 +8,11 @@ import android.os.Build;
 import android.os.Bundle;
 import android.text.TextUtils;
 
-import org.json.JSONObject;
-
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
 
 import androidx.annotation.NonNull;
@@ -31,15 +28,18 @@ import static androidx.annotation.RestrictTo.Scope.LIBRARY;
 import static androidx.annotation.RestrictTo.Scope.LIBRARY_GROUP;
 import static androidx.annotation.RestrictTo.Scope.SUBCLASSES;
 import static me.thekey.android.accounts.Constants.DATA_GUID;
-import static me.thekey.android.core.Constants.OAUTH_PARAM_ACCESS_TOKEN;
-import static me.thekey.android.core.Constants.OAUTH_PARAM_THEKEY_USERNAME;
 
 @RestrictTo(LIBRARY_GROUP)
 final class AccountManagerTheKeyImpl extends TheKeyImpl {
     private static final String AUTH_TOKEN_ACCESS_TOKEN = "access_token";
     private static final String AUTH_TOKEN_REFRESH_TOKEN = "refresh_token";
 
+    private static final String DATA_ACCESS_TOKEN_ISSUE_TIME = "access_token_issue_time";
+    private static final String DATA_ACCESS_TOKEN_EXPIRE_TIME = "access_token_expire_time";
+
     private static final String DATA_ATTR_LOAD_TIME = "attr_load_time";
+    private static final String DATA_ATTR_ETAG = "attr_etag";
+    private static final String DATA_ATTR_LAST_MODIFIED = "attr_last_modified";
     private static final String DATA_ATTR_NAMES = "attr_names";
     private static final String DATA_ATTR_PREFIX = "attr.";
 
@@ -50,6 +50,9 @@ final class AccountManagerTheKeyImpl extends TheKeyImpl {
     @NonNull
     private final String mAccountType;
 
+    // in-memory copy of the attribute data last stored for each session, keyed by guid and guarded by itself
+    private final Map<String, StoredAttributes> mStoredAttributes = new HashMap<>();
+
     AccountManagerTheKeyImpl(@NonNull final Context context, @NonNull final Configuration config) {
         super(context, config);
         assert mConfig.mAccountType != null :
@@ -97,7 +100,7 @@ final class AccountManagerTheKeyImpl extends TheKeyImpl {
     }
 
     @Override
-    void clearAuthState(@NonNull final String guid, final boolean sendBroadcast) {
+    void clearStoredAuthState(@NonNull final String guid, final boolean sendBroadcast) {
         final Account account = findAccount(guid);
         if (account != null) {
             removeAccount(account, true);
@@ -111,33 +114,120 @@ final class AccountManagerTheKeyImpl extends TheKeyImpl {
     }
 
     @Override
-    void storeAttributes(@NonNull final String guid, @NonNull final JSONObject json) {
+    void storeAttributes(@NonNull final String guid, @NonNull final Map<String, String> attributes,
+                         @Nullable final CacheValidators validators) {
         final Account account = findAccount(guid);
-        if (account != null) {
-            removeAttributes(account);
-            mAccountManager.setUserData(account, DATA_ATTR_LOAD_TIME, Long.toString(System.currentTimeMillis()));
-
-            String names = null;
-            final Iterator<String> attrs = json.keys();
-            while (attrs.hasNext()) {
-                final String key = attrs.next();
-                mAccountManager.setUserData(account, DATA_ATTR_PREFIX + key, json.optString(key, null));
-                names = (names != null ? names + "," : "") + key;
+        if (account == null) {
+            return;
+        }
+
+        final Map<String, String> data = new HashMap<>();
+        for (final Map.Entry<String, String> attr : attributes.entrySet()) {
+            data.put(DATA_ATTR_PREFIX + attr.getKey(), attr.getValue());
+        }
+        data.put(DATA_ATTR_NAMES, attributes.isEmpty() ? null : TextUtils.join(",", attributes.keySet()));
+        data.put(DATA_ATTR_ETAG, validators != null ? validators.etag : null);
+        data.put(DATA_ATTR_LAST_MODIFIED, validators != null ? validators.lastModified : null);
+
+        synchronized (mStoredAttributes) {
+            // Every getUserData() and setUserData() is a binder call, so diff against our in-memory copy of the stored
+            // attributes and only write the keys that changed. The copy is only used if the stored load time still
+            // matches the one we wrote, otherwise the attributes were changed elsewhere and are read back from storage.
+            final String loadTime = mAccountManager.getUserData(account, DATA_ATTR_LOAD_TIME);
+            StoredAttributes stored = mStoredAttributes.get(guid);
+            if (stored == null || !TextUtils.equals(loadTime, stored.loadTime)) {
+                stored = new StoredAttributes(loadTime, readAttributeData(account));
+            }
+
+            for (final String key : stored.data.keySet()) {
+                if (!data.containsKey(key)) {
+                    mAccountManager.setUserData(account, key, null);
+                }
+            }
+            for (final Map.Entry<String, String> entry : data.entrySet()) {
+                if (!TextUtils.equals(entry.getValue(), stored.data.get(entry.getKey()))) {
+                    mAccountManager.setUserData(account, entry.getKey(), entry.getValue());
+                }
+            }
+
+            final String newLoadTime = Long.toString(currentTimeMillis());
+            mAccountManager.setUserData(account, DATA_ATTR_LOAD_TIME, newLoadTime);
+            mStoredAttributes.put(guid, new StoredAttributes(newLoadTime, data));
+        }
+    }
+
+    @NonNull
+    private Map<String, String> readAttributeData(@NonNull final Account account) {
+        final Map<String, String> data = new HashMap<>();
+        final String names = mAccountManager.getUserData(account, DATA_ATTR_NAMES);
+        data.put(DATA_ATTR_NAMES, names);
+        if (names != null) {
+            for (final String key : TextUtils.split(names, ",")) {
+                data.put(DATA_ATTR_PREFIX + key, mAccountManager.getUserData(account, DATA_ATTR_PREFIX + key));
+            }
+        }
+        data.put(DATA_ATTR_ETAG, mAccountManager.getUserData(account, DATA_ATTR_ETAG));
+        data.put(DATA_ATTR_LAST_MODIFIED, mAccountManager.getUserData(account, DATA_ATTR_LAST_MODIFIED));
+        return data;
+    }
+
+    @Nullable
+    @Override
+    CacheValidators getStoredAttributeValidators(@NonNull final String guid) {
+        final Account account = findAccount(guid);
+        if (account == null || mAccountManager.getUserData(account, DATA_ATTR_LOAD_TIME) == null) {
+            return null;
+        }
+
+        final String etag = mAccountManager.getUserData(account, DATA_ATTR_ETAG);
+        final String lastModified = mAccountManager.getUserData(account, DATA_ATTR_LAST_MODIFIED);
+        return etag != null || lastModified != null ? new CacheValidators(etag, lastModified) : null;
+    }
+
+    @Override
+    boolean touchAttributes(@NonNull final String guid) {
+        final Account account = findAccount(guid);
+        if (account == null) {
+            return false;
+        }
+
+        synchronized (mStoredAttributes) {
+            final String loadTime = mAccountManager.getUserData(account, DATA_ATTR_LOAD_TIME);
+            if (loadTime == null) {
+                return false;
+            }
+
+            final String newLoadTime = Long.toString(currentTimeMillis());
+            mAccountManager.setUserData(account, DATA_ATTR_LOAD_TIME, newLoadTime);
+
+            // keep our copy of the stored attributes usable if it is still current
+            final StoredAttributes stored = mStoredAttributes.get(guid);
+            if (stored != null) {
+                if (TextUtils.equals(loadTime, stored.loadTime)) {
+                    mStoredAttributes.put(guid, new StoredAttributes(newLoadTime, stored.data));
+                } else {
+                    mStoredAttributes.remove(guid);
+                }
             }
-            mAccountManager.setUserData(account, DATA_ATTR_NAMES, names);
         }
+        return true;
     }
 
     @Override
     void removeAttributes(@NonNull final String guid) {
         final Account account = findAccount(guid);
         if (account != null) {
-            removeAttributes(account);
+            synchronized (mStoredAttributes) {
+                mStoredAttributes.remove(guid);
+                removeAttributes(account);
+            }
         }
     }
 
     private void removeAttributes(@NonNull final Account account) {
         mAccountManager.setUserData(account, DATA_ATTR_LOAD_TIME, null);
+        mAccountManager.setUserData(account, DATA_ATTR_ETAG, null);
+        mAccountManager.setUserData(account, DATA_ATTR_LAST_MODIFIED, null);
         final String names = mAccountManager.getUserData(account, DATA_ATTR_NAMES);
         if (names != null) {
             for (final String key : TextUtils.split(names, ",")) {
@@ -148,14 +238,14 @@ final class AccountManagerTheKeyImpl extends TheKeyImpl {
 
     @Override
     @RestrictTo(SUBCLASSES)
-    boolean storeGrants(@NonNull final String guid, @NonNull final JSONObject json) {
+    boolean storeGrants(@NonNull final String guid, @NonNull final Grants grants) {
         // short-circuit if this grant is for a different user
-        if (!TextUtils.equals(guid, json.optString(JSON_THEKEY_GUID, null))) {
+        if (!TextUtils.equals(guid, grants.guid)) {
             return false;
         }
 
         // determine username
-        String username = json.optString(OAUTH_PARAM_THEKEY_USERNAME, null);
+        String username = grants.username;
         if (TextUtils.isEmpty(username)) {
             username = guid;
         }
@@ -207,18 +297,15 @@ final class AccountManagerTheKeyImpl extends TheKeyImpl {
         }
 
         // store access_token
-        if (json.has(OAUTH_PARAM_ACCESS_TOKEN)) {
-            mAccountManager.setAuthToken(account, AUTH_TOKEN_ACCESS_TOKEN,
-                                         json.optString(OAUTH_PARAM_ACCESS_TOKEN, null));
-            //TODO: store expiration time for access_token?
-//            if (json.has(JSON_EXPIRES_IN)) {
-//                final long expireTime = System.currentTimeMillis() + json.optLong(JSON_EXPIRES_IN) * 1000;
-//            }
+        if (grants.accessToken != null) {
+            final long issueTime = currentTimeMillis();
+            final long expireTime = AccessToken.getExpireTime(issueTime, grants.expiresIn);
+            setAccessToken(account, new AccessToken(grants.accessToken, issueTime, expireTime));
         }
 
         // store refresh_token
-        if (json.has(JSON_REFRESH_TOKEN)) {
-            mAccountManager.setAuthToken(account, AUTH_TOKEN_REFRESH_TOKEN, json.optString(JSON_REFRESH_TOKEN, null));
+        if (grants.refreshToken != null) {
+            mAccountManager.setAuthToken(account, AUTH_TOKEN_REFRESH_TOKEN, grants.refreshToken);
         }
 
         if (broadcastLogin) {
@@ -230,28 +317,62 @@ final class AccountManagerTheKeyImpl extends TheKeyImpl {
 
     @Nullable
     @Override
-    String getAccessToken(@NonNull final String guid) {
+    AccessToken getStoredAccessToken(@NonNull final String guid) {
         final Account account = findAccount(guid);
         if (account != null) {
             try {
-                return mAccountManager.blockingGetAuthToken(account, AUTH_TOKEN_ACCESS_TOKEN, false);
+                final String token = mAccountManager.blockingGetAuthToken(account, AUTH_TOKEN_ACCESS_TOKEN, false);
+                if (token != null) {
+                    return new AccessToken(token, getTime(account, DATA_ACCESS_TOKEN_ISSUE_TIME),
+                                           getTime(account, DATA_ACCESS_TOKEN_EXPIRE_TIME));
+                }
             } catch (final Exception ignored) {
             }
         }
         return null;
     }
 
+    private void setAccessToken(@NonNull final Account account, @Nullable final AccessToken token) {
+        mAccountManager.setAuthToken(account, AUTH_TOKEN_ACCESS_TOKEN, token != null ? token.token : null);
+        mAccountManager.setUserData(account, DATA_ACCESS_TOKEN_ISSUE_TIME,
+                                    token != null ? toTimeString(token.issueTime) : null);
+        mAccountManager.setUserData(account, DATA_ACCESS_TOKEN_EXPIRE_TIME,
+                                    token != null ? toTimeString(token.expireTime) : null);
+    }
+
+    private long getTime(@NonNull final Account account, @NonNull final String key) {
+        final String time = mAccountManager.getUserData(account, key);
+        if (time != null) {
+            try {
+                return Long.parseLong(time);
+            } catch (final NumberFormatException ignored) {
+            }
+        }
+        return AccessToken.UNKNOWN_TIME;
+    }
+
+    @Nullable
+    private static String toTimeString(final long time) {
+        return time != AccessToken.UNKNOWN_TIME ? Long.toString(time) : null;
+    }
+
     @Override
-    void removeAccessToken(@NonNull final String guid, @NonNull final String token) {
+    void removeStoredAccessToken(@NonNull final String guid, @NonNull final String token) {
         final Account account = findAccount(guid);
         if (account != null) {
+            // only clear the token metadata if it belongs to the token being removed
+            final boolean current = token.equals(mAccountManager.peekAuthToken(account, AUTH_TOKEN_ACCESS_TOKEN));
             mAccountManager.invalidateAuthToken(mAccountType, token);
+            if (current) {
+                mAccountManager.setUserData(account, DATA_ACCESS_TOKEN_ISSUE_TIME, null);
+                mAccountManager.setUserData(account, DATA_ACCESS_TOKEN_EXPIRE_TIME, null);
+            }
         }
     }
 
     @Nullable
     @Override
-    String getRefreshToken(@NonNull final String guid) {
+    String getStoredRefreshToken(@NonNull final String guid) {
         final Account account = findAccount(guid);
         if (account != null) {
             try {
@@ -263,7 +384,7 @@ final class AccountManagerTheKeyImpl extends TheKeyImpl {
     }
 
     @Override
-    void removeRefreshToken(@NonNull final String guid, @NonNull final String token) {
+    void removeStoredRefreshToken(@NonNull final String guid, @NonNull final String token) {
         final Account account = findAccount(guid);
         if (account != null) {
             mAccountManager.invalidateAuthToken(mAccountType, token);
@@ -287,14 +408,14 @@ final class AccountManagerTheKeyImpl extends TheKeyImpl {
         mAccountManager.addAccountExplicitly(newAccount, null, data);
 
         // set auth tokens for this account
-        mAccountManager.setAuthToken(newAccount, AUTH_TOKEN_ACCESS_TOKEN, account.accessToken);
+        setAccessToken(newAccount, account.accessToken);
         mAccountManager.setAuthToken(newAccount, AUTH_TOKEN_REFRESH_TOKEN, account.refreshToken);
 
         // set all attributes
         mAccountManager.setUserData(newAccount, DATA_ATTR_NAMES,
                                     TextUtils.join(",", account.attributes.getAttributeNames()));
         mAccountManager.setUserData(newAccount, DATA_ATTR_LOAD_TIME,
-                                    Long.toString(account.attributes.getLoadedTime().getTime()));
+                                    Long.toString(toServerTime(account.attributes.getLoadedTime().getTime())));
         for (final String key : account.attributes.getAttributeNames()) {
             mAccountManager.setUserData(newAccount, DATA_ATTR_PREFIX + key, account.attributes.getAttribute(key));
         }
@@ -318,6 +439,11 @@ final class AccountManagerTheKeyImpl extends TheKeyImpl {
 
         // reset the default session (if this was it)
         resetDefaultSession(guid);
+        if (guid != null) {
+            synchronized (mStoredAttributes) {
+                mStoredAttributes.remove(guid);
+            }
+        }
 
         if (broadcastLogout && guid != null) {
             mEventsManager.logoutEvent(guid, false);
@@ -347,7 +473,8 @@ final class AccountManagerTheKeyImpl extends TheKeyImpl {
                 } catch (final Exception e) {
                     loadedTime = 0;
                 }
-                mLoadedTime = new Date(loadedTime);
+                // the load time is stored using the server clock, expose it using the device clock
+                mLoadedTime = new Date(theKey.toDeviceTime(loadedTime));
 
                 // load attributes
                 final String names = manager.getUserData(account, DATA_ATTR_NAMES);
@@ -404,6 +531,18 @@ final class AccountManagerTheKeyImpl extends TheKeyImpl {
         }
     }
 
+    private static final class StoredAttributes {
+        @Nullable
+        final String loadTime;
+        @NonNull
+        final Map<String, String> data;
+
+        StoredAttributes(@Nullable final String loadTime, @NonNull final Map<String, String> data) {
+            this.loadTime = loadTime;
+            this.data = data;
+        }
+    }
+
     private static final class UsernameWrappedAttributes implements Attributes {
         @NonNull
         private final String mUsername;
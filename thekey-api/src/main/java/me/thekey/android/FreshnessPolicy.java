@@ -0,0 +1,75 @@
+package me.thekey.android;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Determines how long loaded attributes can be used. Attributes older than the soft TTL are stale, they are still
+ * returned immediately but are refreshed in the background. Attributes older than the hard TTL are expired, callers
+ * have to wait for fresh attributes to be loaded.
+ */
+public final class FreshnessPolicy {
+    private static final long DEFAULT_HARD_TTL = 7 * 24 * 60 * 60 * 1000L;
+
+    /**
+     * Attributes are stale after one day, and expire after a week.
+     */
+    public static final FreshnessPolicy DEFAULT = new FreshnessPolicy(Attributes.STALE_AGE, DEFAULT_HARD_TTL);
+
+    private final long mSoftTtl;
+    private final long mHardTtl;
+
+    /**
+     * @param softTtl the age (in milliseconds) after which attributes are refreshed in the background
+     * @param hardTtl the age (in milliseconds) after which attributes can no longer be used without a refresh
+     */
+    public FreshnessPolicy(final long softTtl, final long hardTtl) {
+        if (hardTtl < softTtl) {
+            throw new IllegalArgumentException("hardTtl must be at least softTtl");
+        }
+        mSoftTtl = softTtl;
+        mHardTtl = hardTtl;
+    }
+
+    public long getSoftTtl() {
+        return mSoftTtl;
+    }
+
+    public long getHardTtl() {
+        return mHardTtl;
+    }
+
+    /**
+     * @return true if the attributes should be refreshed, either in the background or by blocking.
+     */
+    public boolean isStale(@NonNull final Attributes attributes) {
+        return !attributes.areValid() || getAge(attributes) > mSoftTtl;
+    }
+
+    /**
+     * @return true if the attributes can't be used until fresh attributes are loaded.
+     */
+    public boolean isExpired(@NonNull final Attributes attributes) {
+        return !attributes.areValid() || getAge(attributes) > mHardTtl;
+    }
+
+    private static long getAge(@NonNull final Attributes attributes) {
+        return System.currentTimeMillis() - attributes.getLoadedTime().getTime();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof FreshnessPolicy)) {
+            return false;
+        }
+        final FreshnessPolicy that = (FreshnessPolicy) o;
+        return mSoftTtl == that.mSoftTtl && mHardTtl == that.mHardTtl;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (int) (mSoftTtl ^ (mSoftTtl >>> 32)) + (int) (mHardTtl ^ (mHardTtl >>> 32));
+    }
+}
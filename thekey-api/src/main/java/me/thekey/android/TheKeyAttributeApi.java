@@ -1,5 +1,7 @@
 package me.thekey.android;
 
+import android.os.AsyncTask;
+
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -60,21 +62,46 @@ interface TheKeyAttributeApi extends TheKeySessions {
     Attributes getCachedAttributes(@Nullable String guid);
 
     /**
-     * This method will return attributes for the specified user.
-     * This method attempts to use the cached attributes, if the cached attributes are not valid or are stale we attempt
-     * to load fresh attributes before returning the attributes.
+     * @return the {@link FreshnessPolicy} used when a call doesn't specify one.
+     */
+    @NonNull
+    @AnyThread
+    default FreshnessPolicy getFreshnessPolicy() {
+        return FreshnessPolicy.DEFAULT;
+    }
+
+    /**
+     * This method will return attributes for the specified user using the default {@link FreshnessPolicy}.
      * This method is blocking, and should never be called directly on the UI thread.
      *
      * @param guid The user we are looking for attributes for.
      * @return the user's attributes.
+     * @see #getAttributes(String, FreshnessPolicy)
      */
     @NonNull
     @WorkerThread
     default Attributes getAttributes(@Nullable final String guid) {
+        return getAttributes(guid, getFreshnessPolicy());
+    }
+
+    /**
+     * This method will return attributes for the specified user.
+     * This method attempts to use the cached attributes. Stale attributes are returned immediately while fresh
+     * attributes are loaded in the background, only invalid or expired attributes wait for fresh attributes to be
+     * loaded before returning.
+     * This method may block, and should never be called directly on the UI thread.
+     *
+     * @param guid   The user we are looking for attributes for.
+     * @param policy The freshness policy to use for this call.
+     * @return the user's attributes.
+     */
+    @NonNull
+    @WorkerThread
+    default Attributes getAttributes(@Nullable final String guid, @NonNull final FreshnessPolicy policy) {
         final Attributes attributes = getCachedAttributes(guid);
 
-        // refresh attributes if they aren't valid or are stale
-        if (!attributes.areValid() || attributes.areStale()) {
+        // block on loading attributes if they aren't valid or have expired
+        if (policy.isExpired(attributes)) {
             try {
                 loadAttributes(guid);
             } catch (final TheKeySocketException e) {
@@ -84,6 +111,29 @@ interface TheKeyAttributeApi extends TheKeySessions {
             return getCachedAttributes(guid);
         }
 
+        // serve stale attributes while refreshing them in the background
+        if (policy.isStale(attributes)) {
+            refreshAttributesInBackground(guid);
+        }
+
         return attributes;
     }
+
+    /**
+     * Load fresh attributes for the specified user in the background. Observers are notified of the fresh attributes
+     * through the usual attributes loaded event. This is a non-blocking method and may be called on the UI thread.
+     *
+     * @param guid The user we are refreshing attributes for.
+     */
+    @AnyThread
+    default void refreshAttributesInBackground(@Nullable final String guid) {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+            try {
+                loadAttributes(guid);
+            } catch (final TheKeySocketException e) {
+                Timber.tag("TheKey")
+                        .d(e, "error refreshing attributes in the background");
+            }
+        });
+    }
 }
@@ -1,5 +1,9 @@
 package me.thekey.android;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
@@ -34,4 +38,48 @@ interface TheKeyTicketApi extends TheKeySessions {
     @Nullable
     @WorkerThread
     String getTicket(@NonNull String guid, @NonNull String service) throws TheKeySocketException;
+
+    /**
+     * This method returns tickets for multiple services for the default session. This method is a
+     * blocking method and should never be called directly on the UI thread.
+     *
+     * @param services the services to retrieve tickets for
+     * @return the result for each service, in the order of the services
+     */
+    @NonNull
+    @WorkerThread
+    default Map<String, TicketResult> getTickets(@NonNull final Collection<String> services) {
+        final String guid = getDefaultSessionGuid();
+        if (guid == null) {
+            final Map<String, TicketResult> results = new LinkedHashMap<>();
+            for (final String service : services) {
+                results.put(service, TicketResult.of(null));
+            }
+            return results;
+        }
+        return getTickets(guid, services);
+    }
+
+    /**
+     * This method returns tickets for multiple services for the specified session. A failure to retrieve the ticket
+     * for one service doesn't prevent retrieving tickets for the other services. This method is a
+     * blocking method and should never be called directly on the UI thread.
+     *
+     * @param services the services to retrieve tickets for
+     * @return the result for each service, in the order of the services
+     */
+    @NonNull
+    @WorkerThread
+    default Map<String, TicketResult> getTickets(@NonNull final String guid,
+                                                 @NonNull final Collection<String> services) {
+        final Map<String, TicketResult> results = new LinkedHashMap<>();
+        for (final String service : services) {
+            try {
+                results.put(service, TicketResult.of(getTicket(guid, service)));
+            } catch (final TheKeySocketException e) {
+                results.put(service, TicketResult.error(e));
+            }
+        }
+        return results;
+    }
 }
@@ -49,4 +49,38 @@ interface TheKeyTokenApi {
     @WorkerThread
     String processPasswordGrant(@NonNull String username, @NonNull String password)
             throws TheKeyApiError, TheKeySocketException;
+
+    /**
+     * Return a valid access_token for the specified session. The current access_token is returned immediately if it
+     * will remain valid for at least the requested lifetime, otherwise a refresh is triggered and this method blocks
+     * until the refresh completes. If the refreshed access_token still doesn't have the requested lifetime, e.g.
+     * because the server issues short-lived tokens, it is returned anyway. Do not call it from the UI thread.
+     *
+     * @param guid        The session to return an access_token for.
+     * @param minLifetime The minimum remaining lifetime, in milliseconds, the returned access_token should have.
+     * @return A valid access_token, or null if the session doesn't have a valid access_token and can't be refreshed.
+     * The default implementation doesn't provide access_tokens and always returns null.
+     */
+    @Nullable
+    @WorkerThread
+    default String getValidAccessToken(@NonNull final String guid, final long minLifetime)
+            throws TheKeySocketException {
+        return null;
+    }
+
+    /**
+     * Replace an access_token that was rejected by a server. Every caller replacing the same access_token shares a
+     * single refresh of the session. This method is blocking, do not call it from the UI thread.
+     *
+     * @param guid          The session the rejected access_token belongs to.
+     * @param rejectedToken The access_token that was rejected.
+     * @return the new access_token, or null if the session can no longer be refreshed.
+     */
+    @Nullable
+    @WorkerThread
+    default String replaceAccessToken(@NonNull final String guid, @NonNull final String rejectedToken)
+            throws TheKeySocketException {
+        final String accessToken = getValidAccessToken(guid, 0);
+        return rejectedToken.equals(accessToken) ? null : accessToken;
+    }
 }
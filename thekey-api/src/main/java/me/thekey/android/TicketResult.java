@@ -0,0 +1,60 @@
+package me.thekey.android;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+import me.thekey.android.exception.TheKeySocketException;
+
+import static androidx.annotation.RestrictTo.Scope.LIBRARY_GROUP;
+
+/**
+ * The outcome of fetching a ticket for a single service as part of
+ * {@link TheKey#getTickets(String, java.util.Collection)}.
+ */
+public final class TicketResult {
+    @Nullable
+    private final String mTicket;
+    @Nullable
+    private final TheKeySocketException mError;
+
+    private TicketResult(@Nullable final String ticket, @Nullable final TheKeySocketException error) {
+        mTicket = ticket;
+        mError = error;
+    }
+
+    /**
+     * @param ticket the ticket, or null if the session needs to authenticate before a ticket can be retrieved
+     */
+    @NonNull
+    @RestrictTo(LIBRARY_GROUP)
+    public static TicketResult of(@Nullable final String ticket) {
+        return new TicketResult(ticket, null);
+    }
+
+    @NonNull
+    @RestrictTo(LIBRARY_GROUP)
+    public static TicketResult error(@NonNull final TheKeySocketException error) {
+        return new TicketResult(null, error);
+    }
+
+    public boolean isSuccessful() {
+        return mTicket != null;
+    }
+
+    /**
+     * @return the ticket, or null if the ticket couldn't be retrieved.
+     */
+    @Nullable
+    public String getTicket() {
+        return mTicket;
+    }
+
+    /**
+     * @return the error that prevented retrieving the ticket, or null if the ticket was retrieved or the session needs
+     * to authenticate before a ticket can be retrieved.
+     */
+    @Nullable
+    public TheKeySocketException getError() {
+        return mError;
+    }
+}
@@ -0,0 +1,23 @@
+package me.thekey.android.exception;
+
+/**
+ * Thrown when a request isn't sent because the server recently rate limited us, and the cooldown requested by the
+ * server hasn't expired yet.
+ */
+public class TheKeyRateLimitedException extends TheKeySocketException {
+    private static final long serialVersionUID = 4583276155431709620L;
+
+    private final long mRetryAfter;
+
+    public TheKeyRateLimitedException(final long retryAfter) {
+        super("rate limited, retry after " + retryAfter + "ms");
+        mRetryAfter = retryAfter;
+    }
+
+    /**
+     * @return how long (in milliseconds) until requests will be allowed again.
+     */
+    public final long getRetryAfter() {
+        return mRetryAfter;
+    }
+}
@@ -0,0 +1,34 @@
+package me.thekey.android.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+
+import static androidx.annotation.RestrictTo.Scope.LIBRARY_GROUP;
+
+@RestrictTo(LIBRARY_GROUP)
+final class AccessToken {
+    static final long UNKNOWN_TIME = 0;
+
+    @NonNull
+    final String token;
+    final long issueTime;
+    final long expireTime;
+
+    AccessToken(@NonNull final String token) {
+        this(token, UNKNOWN_TIME, UNKNOWN_TIME);
+    }
+
+    AccessToken(@NonNull final String token, final long issueTime, final long expireTime) {
+        this.token = token;
+        this.issueTime = issueTime;
+        this.expireTime = expireTime;
+    }
+
+    static long getExpireTime(final long issueTime, final long expiresIn) {
+        return expiresIn > 0 ? issueTime + expiresIn * 1000 : UNKNOWN_TIME;
+    }
+
+    boolean isExpired(final long currentTime) {
+        return expireTime != UNKNOWN_TIME && expireTime < currentTime;
+    }
+}
@@ -0,0 +1,108 @@
+package me.thekey.android.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.WorkerThread;
+import me.thekey.android.events.EventsManager;
+import me.thekey.android.exception.RateLimitExceededApiError;
+import me.thekey.android.exception.TheKeySocketException;
+import timber.log.Timber;
+
+import static androidx.annotation.RestrictTo.Scope.LIBRARY;
+
+/**
+ * Refreshes the access_token for each session in the background shortly before it expires, so that callers never
+ * have to wait on a refresh_token grant.
+ */
+@RestrictTo(LIBRARY)
+final class AccessTokenRefreshScheduler implements EventsManager {
+    @NonNull
+    private final TheKeyImpl mTheKey;
+    private final long mMargin;
+
+    @NonNull
+    private final ScheduledExecutorService mExecutor;
+    private final ConcurrentMap<String, ScheduledFuture<?>> mScheduledRefreshes = new ConcurrentHashMap<>();
+
+    AccessTokenRefreshScheduler(@NonNull final TheKeyImpl thekey, final long margin) {
+        mTheKey = thekey;
+        mMargin = margin;
+
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, "TheKey-AccessTokenRefresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mExecutor = executor;
+    }
+
+    /**
+     * Schedule a refresh of the access_token for the specified session.
+     *
+     * @param guid      the session to refresh
+     * @param expiresIn how long (in milliseconds) until the current access_token expires
+     */
+    @AnyThread
+    void schedule(@NonNull final String guid, final long expiresIn) {
+        if (expiresIn <= 0) {
+            cancel(guid);
+            return;
+        }
+
+        // refresh the margin before the token expires, short-lived tokens are refreshed half-way through their life
+        final long delay = expiresIn > mMargin * 2 ? expiresIn - mMargin : expiresIn / 2;
+        final ScheduledFuture<?> previous =
+                mScheduledRefreshes.put(guid, mExecutor.schedule(() -> refresh(guid), delay, TimeUnit.MILLISECONDS));
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+
+    /**
+     * Schedule refreshes for all existing sessions that have an access_token with a known expiration time.
+     */
+    @AnyThread
+    void scheduleSessions() {
+        mExecutor.execute(() -> {
+            for (final String guid : mTheKey.getSessions()) {
+                final AccessToken token = mTheKey.getCachedAccessToken(guid, 0);
+                if (token != null && token.expireTime != AccessToken.UNKNOWN_TIME) {
+                    schedule(guid, token.expireTime - mTheKey.currentTimeMillis());
+                }
+            }
+        });
+    }
+
+    @AnyThread
+    void cancel(@NonNull final String guid) {
+        final ScheduledFuture<?> refresh = mScheduledRefreshes.remove(guid);
+        if (refresh != null) {
+            refresh.cancel(false);
+        }
+    }
+
+    @WorkerThread
+    private void refresh(@NonNull final String guid) {
+        try {
+            mTheKey.refreshAccessTokenInBackground(guid);
+        } catch (final RateLimitExceededApiError | TheKeySocketException e) {
+            // the access_token will be refreshed on demand instead
+            Timber.tag("TheKey").d(e, "error proactively refreshing the access_token");
+        }
+    }
+
+    // region EventsManager
+    @Override
+    public void logoutEvent(@NonNull final String guid, final boolean changingUser) {
+        cancel(guid);
+    }
+    // endregion EventsManager
+}
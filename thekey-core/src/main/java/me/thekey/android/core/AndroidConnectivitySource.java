@@ -0,0 +1,110 @@
+package me.thekey.android.core;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Build;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+import timber.log.Timber;
+
+import static androidx.annotation.RestrictTo.Scope.LIBRARY;
+
+/**
+ * {@link ConnectivitySource} backed by the {@link ConnectivityManager}. Connectivity changes are delivered by a network
+ * callback on Lollipop and newer, older devices fall back to the connectivity change broadcast.
+ */
+@RestrictTo(LIBRARY)
+final class AndroidConnectivitySource implements ConnectivitySource {
+    @NonNull
+    private final Context mContext;
+    @Nullable
+    private final ConnectivityManager mConnectivityManager;
+    @Nullable
+    private volatile Listener mListener;
+
+    AndroidConnectivitySource(@NonNull final Context context) {
+        mContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        mConnectivityManager = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    @Override
+    @AnyThread
+    @SuppressWarnings("deprecation")
+    public boolean isConnected() {
+        if (mConnectivityManager == null) {
+            return true;
+        }
+
+        try {
+            final NetworkInfo info = mConnectivityManager.getActiveNetworkInfo();
+            return info != null && info.isConnected();
+        } catch (final SecurityException e) {
+            // the app stripped the ACCESS_NETWORK_STATE permission, assume we are connected
+            Timber.tag("TheKey").d(e, "Unable to determine connectivity state");
+            return true;
+        }
+    }
+
+    @Override
+    @AnyThread
+    public void setListener(@NonNull final Listener listener) {
+        mListener = listener;
+        if (mConnectivityManager != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            registerNetworkCallback(mConnectivityManager);
+        } else {
+            registerConnectivityReceiver();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void registerNetworkCallback(@NonNull final ConnectivityManager connectivityManager) {
+        final NetworkRequest request = new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build();
+        try {
+            connectivityManager.registerNetworkCallback(request, new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(@NonNull final Network network) {
+                    notifyListener();
+                }
+
+                @Override
+                public void onLost(@NonNull final Network network) {
+                    notifyListener();
+                }
+            });
+        } catch (final SecurityException e) {
+            // the app stripped the ACCESS_NETWORK_STATE permission, we won't receive connectivity changes
+            Timber.tag("TheKey").d(e, "Unable to register network callback");
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void registerConnectivityReceiver() {
+        mContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(@NonNull final Context context, @NonNull final Intent intent) {
+                notifyListener();
+            }
+        }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    @AnyThread
+    private void notifyListener() {
+        final Listener listener = mListener;
+        if (listener != null) {
+            listener.onConnectivityChanged(isConnected());
+        }
+    }
+}
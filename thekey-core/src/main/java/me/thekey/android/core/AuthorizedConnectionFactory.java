@@ -0,0 +1,112 @@
+package me.thekey.android.core;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
+import static me.thekey.android.core.Constants.OAUTH_PARAM_ERROR;
+
+/**
+ * Opens {@link HttpURLConnection}s that are authorized with the access_token of a TheKey session. If the server
+ * rejects the access_token with a Bearer invalid_token challenge, the access_token is refreshed once and the request
+ * is retried transparently.
+ */
+public final class AuthorizedConnectionFactory {
+    private static final String HEADER_AUTHORIZATION = "Authorization";
+    private static final String HEADER_WWW_AUTHENTICATE = "WWW-Authenticate";
+
+    /**
+     * Prepares a connection before it is sent, e.g. setting the request method or writing the request body. This may
+     * be called more than once for a single request if the request needs to be retried.
+     */
+    public interface RequestWriter {
+        void writeRequest(@NonNull HttpURLConnection conn) throws IOException;
+    }
+
+    @NonNull
+    private final TheKeyImpl mTheKey;
+    @Nullable
+    private final String mGuid;
+
+    public AuthorizedConnectionFactory(@NonNull final TheKeyImpl thekey) {
+        this(thekey, null);
+    }
+
+    /**
+     * @param guid the session to authorize connections for, or null to always use the current default session.
+     */
+    public AuthorizedConnectionFactory(@NonNull final TheKeyImpl thekey, @Nullable final String guid) {
+        mTheKey = thekey;
+        mGuid = guid;
+    }
+
+    /**
+     * Open an authorized connection to the specified URL. The returned connection has already received the response,
+     * the caller is responsible for reading the response and disconnecting the connection.
+     *
+     * @param url    the URL to connect to
+     * @param writer an optional {@link RequestWriter} to prepare the request
+     * @return the connection
+     */
+    @NonNull
+    @WorkerThread
+    public HttpURLConnection openConnection(@NonNull final URL url, @Nullable final RequestWriter writer)
+            throws IOException {
+        final String guid = mGuid != null ? mGuid : mTheKey.getDefaultSessionGuid();
+        final String accessToken = guid != null ? mTheKey.getValidAccessToken(guid, 0) : null;
+        final HttpURLConnection conn = openConnection(url, accessToken, writer);
+
+        // refresh the access_token and retry the request once if the access_token was rejected
+        if (guid != null && accessToken != null && isInvalidToken(conn)) {
+            final String newAccessToken;
+            try {
+                newAccessToken = mTheKey.replaceAccessToken(guid, accessToken);
+            } catch (final IOException | RuntimeException e) {
+                conn.disconnect();
+                throw e;
+            }
+            if (newAccessToken != null && !newAccessToken.equals(accessToken)) {
+                conn.disconnect();
+                return openConnection(url, newAccessToken, writer);
+            }
+        }
+
+        return conn;
+    }
+
+    @NonNull
+    private HttpURLConnection openConnection(@NonNull final URL url, @Nullable final String accessToken,
+                                             @Nullable final RequestWriter writer) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        if (accessToken != null) {
+            conn.setRequestProperty(HEADER_AUTHORIZATION, "Bearer " + accessToken);
+        }
+        if (writer != null) {
+            writer.writeRequest(conn);
+        }
+
+        // trigger the request
+        conn.getResponseCode();
+        return conn;
+    }
+
+    private static boolean isInvalidToken(@NonNull final HttpURLConnection conn) throws IOException {
+        if (conn.getResponseCode() != HTTP_UNAUTHORIZED) {
+            return false;
+        }
+
+        // parse the Authenticate header
+        final String auth = conn.getHeaderField(HEADER_WWW_AUTHENTICATE);
+        if (auth != null) {
+            final HttpHeaderUtils.Challenge challenge = HttpHeaderUtils.parseChallenge(auth);
+            return "BEARER".equals(challenge.getScheme()) &&
+                    "invalid_token".equals(challenge.getParameterValue(OAUTH_PARAM_ERROR));
+        }
+        return false;
+    }
+}
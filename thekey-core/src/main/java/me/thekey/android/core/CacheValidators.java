@@ -0,0 +1,62 @@
+package me.thekey.android.core;
+
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+import me.thekey.android.core.transport.HttpRequest;
+import me.thekey.android.core.transport.HttpResponse;
+
+import static androidx.annotation.RestrictTo.Scope.LIBRARY_GROUP;
+
+/**
+ * The HTTP cache validators of a previously loaded response, used to revalidate it with a conditional request.
+ */
+@RestrictTo(LIBRARY_GROUP)
+final class CacheValidators {
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+    @Nullable
+    final String etag;
+    @Nullable
+    final String lastModified;
+
+    CacheValidators(@Nullable final String etag, @Nullable final String lastModified) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return the validators of the response, or null if it has none or the server asked us not to store it.
+     */
+    @Nullable
+    static CacheValidators fromResponse(@NonNull final HttpResponse response) {
+        final String cacheControl = response.getHeader(HEADER_CACHE_CONTROL);
+        if (cacheControl != null && cacheControl.toLowerCase(Locale.US).contains("no-store")) {
+            return null;
+        }
+
+        final String etag = response.getHeader(HEADER_ETAG);
+        final String lastModified = response.getHeader(HEADER_LAST_MODIFIED);
+        return etag != null || lastModified != null ? new CacheValidators(etag, lastModified) : null;
+    }
+
+    /**
+     * @return the request made conditional on the response having changed since these validators were issued.
+     */
+    @NonNull
+    HttpRequest applyTo(@NonNull HttpRequest request) {
+        if (etag != null) {
+            request = request.header(HEADER_IF_NONE_MATCH, etag);
+        }
+        if (lastModified != null) {
+            request = request.header(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+        return request;
+    }
+}
@@ -0,0 +1,176 @@
+package me.thekey.android.core;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import me.thekey.android.TheKeyService;
+import me.thekey.android.exception.TheKeySocketException;
+
+/**
+ * Circuit breaker guarding requests to the CAS server. Once the failure rate over the most recent requests crosses
+ * the threshold the circuit opens and requests fail fast with a {@link TheKeySocketException} instead of each
+ * blocking until its socket times out. After the open duration a single probe request is let through, which closes
+ * the circuit if it succeeds or re-opens it if it fails.
+ *
+ * The breaker is registered as a {@link TheKeyService}, register a {@link Listener} to react to state changes, e.g.
+ * to show an offline UI.
+ */
+public final class CircuitBreaker implements TheKeyService {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    public interface Listener {
+        @AnyThread
+        void onCircuitBreakerStateChanged(@NonNull CircuitBreaker breaker, @NonNull State state);
+    }
+
+    private static final float DEFAULT_FAILURE_RATE_THRESHOLD = 0.5f;
+    private static final int DEFAULT_WINDOW_SIZE = 20;
+    private static final int DEFAULT_MINIMUM_REQUESTS = 5;
+    private static final long DEFAULT_OPEN_DURATION = 30 * 1000;
+
+    private final float mFailureRateThreshold;
+    private final int mMinimumRequests;
+    private final long mOpenDuration;
+
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    // ring buffer of the outcomes of the most recent requests, true for failures
+    private final boolean[] mWindow;
+    private int mWindowPos = 0;
+    private int mRequests = 0;
+    private int mFailures = 0;
+
+    @NonNull
+    private volatile State mState = State.CLOSED;
+    // the SystemClock.elapsedRealtime() when the circuit was opened
+    private long mOpenedAt;
+
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_RATE_THRESHOLD, DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_REQUESTS, DEFAULT_OPEN_DURATION);
+    }
+
+    /**
+     * @param failureRateThreshold the failure rate (0.0 - 1.0) at which the circuit opens
+     * @param windowSize           the number of most recent requests the failure rate is calculated over
+     * @param minimumRequests      the minimum number of requests in the window before the circuit can open
+     * @param openDuration         how long (in milliseconds) the circuit stays open before a probe is let through
+     */
+    public CircuitBreaker(final float failureRateThreshold, final int windowSize, final int minimumRequests,
+                          final long openDuration) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be at least 1");
+        }
+        mFailureRateThreshold = failureRateThreshold;
+        mWindow = new boolean[windowSize];
+        mMinimumRequests = Math.max(1, Math.min(minimumRequests, windowSize));
+        mOpenDuration = openDuration;
+    }
+
+    @NonNull
+    @AnyThread
+    public State getState() {
+        return mState;
+    }
+
+    @AnyThread
+    public void addListener(@NonNull final Listener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    @AnyThread
+    public void removeListener(@NonNull final Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Acquire permission to send a request. Every successful call must be followed by a call to
+     * {@link #onResult(boolean)} once the outcome of the request is known.
+     *
+     * @throws TheKeySocketException if the circuit is open.
+     */
+    @AnyThread
+    void acquire() throws TheKeySocketException {
+        synchronized (this) {
+            if (mState == State.CLOSED) {
+                return;
+            }
+
+            // the circuit is half-open while the probe is in flight, so only an open circuit can admit the probe
+            if (mState != State.OPEN || SystemClock.elapsedRealtime() - mOpenedAt < mOpenDuration) {
+                throw new TheKeySocketException("CAS circuit breaker is open");
+            }
+            mState = State.HALF_OPEN;
+        }
+        dispatchStateChanged(State.HALF_OPEN);
+    }
+
+    /**
+     * Record the outcome of a request that was permitted by {@link #acquire()}.
+     *
+     * @param success whether the CAS server handled the request, any response that isn't a server error counts as
+     *                success
+     */
+    @AnyThread
+    void onResult(final boolean success) {
+        final State newState;
+        synchronized (this) {
+            final State oldState = mState;
+            if (oldState == State.HALF_OPEN) {
+                // this is the outcome of the probe
+                if (success) {
+                    resetWindow();
+                    mState = State.CLOSED;
+                } else {
+                    open();
+                }
+            } else if (oldState == State.CLOSED) {
+                record(!success);
+                if (mRequests >= mMinimumRequests &&
+                        mFailures >= mFailureRateThreshold * mRequests) {
+                    open();
+                }
+            }
+            newState = mState != oldState ? mState : null;
+        }
+
+        if (newState != null) {
+            dispatchStateChanged(newState);
+        }
+    }
+
+    private void record(final boolean failure) {
+        if (mRequests == mWindow.length) {
+            if (mWindow[mWindowPos]) {
+                mFailures--;
+            }
+        } else {
+            mRequests++;
+        }
+        mWindow[mWindowPos] = failure;
+        if (failure) {
+            mFailures++;
+        }
+        mWindowPos = (mWindowPos + 1) % mWindow.length;
+    }
+
+    private void resetWindow() {
+        mWindowPos = 0;
+        mRequests = 0;
+        mFailures = 0;
+    }
+
+    private void open() {
+        mState = State.OPEN;
+        mOpenedAt = SystemClock.elapsedRealtime();
+        resetWindow();
+    }
+
+    private void dispatchStateChanged(@NonNull final State state) {
+        for (final Listener listener : mListeners) {
+            listener.onCircuitBreakerStateChanged(this, state);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package me.thekey.android.core;
+
+import android.os.AsyncTask;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import me.thekey.android.exception.TheKeySocketException;
+import timber.log.Timber;
+
+import static androidx.annotation.RestrictTo.Scope.LIBRARY;
+
+/**
+ * Short-circuits background attribute refreshes while the device is offline. Instead of each refresh blocking a thread
+ * until the request fails, deferred refreshes are queued and replayed in a single batch once connectivity returns.
+ * Observers of the attributes are notified of the replayed loads through the usual attributes loaded event.
+ */
+@RestrictTo(LIBRARY)
+final class ConnectivityMonitor implements ConnectivitySource.Listener {
+    interface Loader {
+        @WorkerThread
+        void loadAttributes(@NonNull String guid) throws TheKeySocketException;
+    }
+
+    @NonNull
+    private final ConnectivitySource mSource;
+    @NonNull
+    private final Loader mLoader;
+    @NonNull
+    private final Executor mExecutor;
+
+    // guids of sessions with a deferred attributes load, guarded by this
+    private final Set<String> mDeferredAttributes = new LinkedHashSet<>();
+
+    ConnectivityMonitor(@NonNull final ConnectivitySource source, @NonNull final Loader loader) {
+        this(source, loader, AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    @VisibleForTesting
+    ConnectivityMonitor(@NonNull final ConnectivitySource source, @NonNull final Loader loader,
+                        @NonNull final Executor executor) {
+        mSource = source;
+        mLoader = loader;
+        mExecutor = executor;
+        mSource.setListener(this);
+    }
+
+    @AnyThread
+    boolean isConnected() {
+        return mSource.isConnected();
+    }
+
+    /**
+     * Defer loading attributes for the specified session if the device is currently offline.
+     *
+     * @return true if the load was deferred.
+     */
+    @AnyThread
+    boolean deferAttributesLoad(@NonNull final String guid) {
+        if (mSource.isConnected()) {
+            return false;
+        }
+
+        synchronized (mDeferredAttributes) {
+            mDeferredAttributes.add(guid);
+        }
+
+        // connectivity may have returned while we were queueing the load
+        if (mSource.isConnected()) {
+            onConnectivityChanged(true);
+        }
+        return true;
+    }
+
+    @Override
+    @AnyThread
+    public void onConnectivityChanged(final boolean connected) {
+        if (!connected) {
+            return;
+        }
+
+        final List<String> guids;
+        synchronized (mDeferredAttributes) {
+            if (mDeferredAttributes.isEmpty()) {
+                return;
+            }
+            guids = new ArrayList<>(mDeferredAttributes);
+            mDeferredAttributes.clear();
+        }
+        mExecutor.execute(() -> replayAttributeLoads(guids));
+    }
+
+    @WorkerThread
+    private void replayAttributeLoads(@NonNull final List<String> guids) {
+        for (final String guid : guids) {
+            try {
+                mLoader.loadAttributes(guid);
+            } catch (final TheKeySocketException e) {
+                Timber.tag("TheKey").d(e, "error replaying deferred attributes load");
+            }
+        }
+    }
+}
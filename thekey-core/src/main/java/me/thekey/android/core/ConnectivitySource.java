@@ -0,0 +1,28 @@
+package me.thekey.android.core;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+/**
+ * Source of the device's network connectivity state. TheKey uses this to defer background work while the device is
+ * offline. The default implementation is backed by the {@link android.net.ConnectivityManager}, a custom source can
+ * be provided using {@link TheKeyImpl.Configuration#connectivitySource(ConnectivitySource)}.
+ */
+public interface ConnectivitySource {
+    interface Listener {
+        @AnyThread
+        void onConnectivityChanged(boolean connected);
+    }
+
+    /**
+     * @return true if the device currently has network connectivity, if the state is unknown this should return true.
+     */
+    @AnyThread
+    boolean isConnected();
+
+    /**
+     * Start delivering connectivity changes to the specified listener. This is called once when TheKey is initialized.
+     */
+    @AnyThread
+    void setListener(@NonNull Listener listener);
+}
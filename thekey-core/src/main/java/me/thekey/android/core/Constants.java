@@ -8,6 +8,12 @@ import static androidx.annotation.RestrictTo.Scope.LIBRARY;
 public final class Constants {
     @RestrictTo(LIBRARY)
     public static final int DEFAULT_TRAFFIC_STATS_TAG = 815358825;
+    @RestrictTo(LIBRARY)
+    public static final long DEFAULT_ACCESS_TOKEN_REFRESH_MARGIN = 60 * 1000; /* 1 minute */
+    @RestrictTo(LIBRARY)
+    public static final long DEFAULT_REQUEST_DEADLINE = 60 * 1000; /* 1 minute */
+    @RestrictTo(LIBRARY)
+    public static final long DEFAULT_PREFETCH_TICKET_TTL = 10 * 1000; /* 10 seconds */
 
     public static final Uri CAS_SERVER = Uri.parse("https://thekey.me/cas/");
 
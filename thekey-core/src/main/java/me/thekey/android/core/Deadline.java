@@ -0,0 +1,63 @@
+package me.thekey.android.core;
+
+import android.os.SystemClock;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+import me.thekey.android.exception.TheKeySocketException;
+
+import static androidx.annotation.RestrictTo.Scope.LIBRARY;
+
+/**
+ * The time budget for a single blocking API call. A deadline is created when the call starts and is passed down to
+ * every refresh, retry and request made on behalf of that call, so that the whole call completes (or fails) within
+ * the budget.
+ */
+@RestrictTo(LIBRARY)
+final class Deadline {
+    static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+    // the SystemClock.elapsedRealtime() this deadline expires at
+    private final long mExpiresAt;
+
+    private Deadline(final long expiresAt) {
+        mExpiresAt = expiresAt;
+    }
+
+    /**
+     * @param timeout the budget in milliseconds, a budget of 0 or less means there is no deadline.
+     */
+    @NonNull
+    static Deadline after(final long timeout) {
+        return timeout > 0 ? new Deadline(SystemClock.elapsedRealtime() + timeout) : NONE;
+    }
+
+    /**
+     * @return the remaining time in milliseconds, or {@link Long#MAX_VALUE} if there is no deadline.
+     */
+    @AnyThread
+    long remaining() {
+        return this == NONE ? Long.MAX_VALUE : Math.max(mExpiresAt - SystemClock.elapsedRealtime(), 0);
+    }
+
+    /**
+     * @return the remaining time in milliseconds to use as a timeout, or 0 if there is no deadline.
+     * @throws TheKeySocketException if the deadline has already passed.
+     */
+    @AnyThread
+    long timeout() throws TheKeySocketException {
+        check();
+        return this == NONE ? 0 : remaining();
+    }
+
+    /**
+     * @throws TheKeySocketException if the deadline has passed.
+     */
+    @AnyThread
+    void check() throws TheKeySocketException {
+        if (remaining() <= 0) {
+            throw new TheKeySocketException("deadline exceeded");
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package me.thekey.android.core;
+
+import java.io.IOException;
+import java.security.cert.CertificateException;
+import java.util.Random;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import androidx.annotation.NonNull;
+import me.thekey.android.core.transport.HttpRequest;
+
+/**
+ * {@link RetryPolicy} using exponential backoff with full jitter, so that clients which failed at the same time don't
+ * all retry at the same time.
+ */
+public final class ExponentialBackoffRetryPolicy implements RetryPolicy {
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final long DEFAULT_BASE_DELAY = 250;
+    private static final long DEFAULT_MAX_DELAY = 4 * 1000;
+
+    private final Random mRandom = new Random();
+
+    private final int mMaxAttempts;
+    private final long mBaseDelay;
+    private final long mMaxDelay;
+
+    public ExponentialBackoffRetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    /**
+     * @param maxAttempts the maximum number of attempts for a request, including the initial attempt
+     * @param baseDelay   the maximum delay (in milliseconds) before the first retry, doubled for every further retry
+     * @param maxDelay    the cap (in milliseconds) on the delay between attempts
+     */
+    public ExponentialBackoffRetryPolicy(final int maxAttempts, final long baseDelay, final long maxDelay) {
+        mMaxAttempts = maxAttempts;
+        mBaseDelay = baseDelay;
+        mMaxDelay = maxDelay;
+    }
+
+    @Override
+    public long getRetryDelay(@NonNull final HttpRequest request, final int attempt,
+                              @NonNull final IOException error) {
+        if (attempt >= mMaxAttempts || !isTransient(error)) {
+            return NO_RETRY;
+        }
+
+        // full jitter: a random delay between 0 and the exponential backoff
+        long backoff = mBaseDelay;
+        for (int i = 1; i < attempt && backoff < mMaxDelay; i++) {
+            backoff *= 2;
+        }
+        return (long) (mRandom.nextDouble() * Math.min(backoff, mMaxDelay));
+    }
+
+    private static boolean isTransient(@NonNull final IOException error) {
+        // certificate errors won't go away by retrying
+        return !(error instanceof SSLPeerUnverifiedException) && !(error.getCause() instanceof CertificateException);
+    }
+}
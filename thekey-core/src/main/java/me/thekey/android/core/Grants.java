@@ -0,0 +1,23 @@
+package me.thekey.android.core;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+
+import static androidx.annotation.RestrictTo.Scope.LIBRARY_GROUP;
+
+/**
+ * The grants returned by a successful token api request.
+ */
+@RestrictTo(LIBRARY_GROUP)
+final class Grants {
+    @Nullable
+    String guid;
+    @Nullable
+    String username;
+    @Nullable
+    String accessToken;
+    // the lifetime of the access_token in seconds, 0 if unknown
+    long expiresIn = 0;
+    @Nullable
+    String refreshToken;
+}
@@ -0,0 +1,113 @@
+package me.thekey.android.core;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+import me.thekey.android.core.transport.HttpRequest;
+import me.thekey.android.core.transport.HttpResponse;
+import timber.log.Timber;
+
+import static androidx.annotation.RestrictTo.Scope.LIBRARY;
+
+/**
+ * Transparently decompresses a gzip encoded {@link HttpResponse}. Requests explicitly negotiate gzip so that
+ * compression works the same for every {@link me.thekey.android.core.transport.HttpTransport}, and so that the
+ * compressed size of responses can be measured.
+ */
+@RestrictTo(LIBRARY)
+final class GzipHttpResponse implements HttpResponse {
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+
+    @NonNull
+    private final HttpResponse mResponse;
+
+    @Nullable
+    private CountingInputStream mCompressed;
+    @Nullable
+    private CountingInputStream mBody;
+
+    private GzipHttpResponse(@NonNull final HttpResponse response) {
+        mResponse = response;
+    }
+
+    @NonNull
+    static HttpRequest acceptGzip(@NonNull final HttpRequest request) {
+        return request.header(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+    }
+
+    @NonNull
+    static HttpResponse wrap(@NonNull final HttpResponse response) {
+        return ENCODING_GZIP.equalsIgnoreCase(response.getHeader(HEADER_CONTENT_ENCODING)) ?
+                new GzipHttpResponse(response) : response;
+    }
+
+    @Override
+    public int getCode() {
+        return mResponse.getCode();
+    }
+
+    @Nullable
+    @Override
+    public String getHeader(@NonNull final String name) {
+        return mResponse.getHeader(name);
+    }
+
+    @NonNull
+    @Override
+    public InputStream getBody() throws IOException {
+        if (mBody == null) {
+            mCompressed = new CountingInputStream(mResponse.getBody());
+            mBody = new CountingInputStream(new GZIPInputStream(mCompressed));
+        }
+        return mBody;
+    }
+
+    @Override
+    public void close() {
+        if (mCompressed != null && mBody != null) {
+            Timber.tag("TheKey").d("gzip response: %d bytes on the wire, %d bytes decompressed",
+                                   mCompressed.mCount, mBody.mCount);
+        }
+        mResponse.close();
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long mCount = 0;
+
+        CountingInputStream(@NonNull final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull final byte[] buffer, final int offset, final int count) throws IOException {
+            final int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(final long count) throws IOException {
+            final long skipped = super.skip(count);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
@@ -4,16 +4,38 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.TimeZone;
 
 import static androidx.annotation.RestrictTo.Scope.LIBRARY;
 
 @RestrictTo(LIBRARY)
 final class HttpHeaderUtils {
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    /**
+     * @return the time represented by the HTTP-date, or 0 if the date couldn't be parsed.
+     */
+    static long parseDate(@Nullable final String date) {
+        if (date == null) {
+            return 0;
+        }
+
+        final SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(date.trim()).getTime();
+        } catch (final ParseException e) {
+            return 0;
+        }
+    }
+
     @NonNull
     static Challenge parseChallenge(@NonNull final String challenge) {
         // separate the scheme from the params
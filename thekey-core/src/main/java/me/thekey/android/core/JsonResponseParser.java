@@ -0,0 +1,214 @@
+package me.thekey.android.core;
+
+import android.util.JsonReader;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+
+import static androidx.annotation.RestrictTo.Scope.LIBRARY;
+import static me.thekey.android.TheKey.JSON_EXPIRES_IN;
+import static me.thekey.android.TheKey.JSON_REFRESH_TOKEN;
+import static me.thekey.android.TheKey.JSON_THEKEY_GUID;
+import static me.thekey.android.TheKey.JSON_TICKET;
+import static me.thekey.android.core.Constants.OAUTH_PARAM_ACCESS_TOKEN;
+import static me.thekey.android.core.Constants.OAUTH_PARAM_THEKEY_USERNAME;
+
+/**
+ * Streaming parsers for the JSON responses of the CAS api endpoints. Only the fields each endpoint needs are read,
+ * everything else is skipped without being materialized.
+ */
+@RestrictTo(LIBRARY)
+final class JsonResponseParser {
+    private JsonResponseParser() {}
+
+    @NonNull
+    static Grants parseGrants(@NonNull final InputStream in) throws IOException {
+        final Grants grants = new Grants();
+        final JsonReader reader = newReader(in);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case JSON_THEKEY_GUID:
+                        grants.guid = nextString(reader);
+                        break;
+                    case OAUTH_PARAM_THEKEY_USERNAME:
+                        grants.username = nextString(reader);
+                        break;
+                    case OAUTH_PARAM_ACCESS_TOKEN:
+                        grants.accessToken = nextString(reader);
+                        break;
+                    case JSON_EXPIRES_IN:
+                        final String expiresIn = nextString(reader);
+                        // expires_in may be sent as a decimal number (e.g. 3600.0)
+                        grants.expiresIn = expiresIn != null ? (long) Double.parseDouble(expiresIn) : 0;
+                        break;
+                    case JSON_REFRESH_TOKEN:
+                        grants.refreshToken = nextString(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (final IllegalStateException | NumberFormatException e) {
+            throw new IOException("Invalid JSON response from The Key", e);
+        } finally {
+            reader.close();
+        }
+        return grants;
+    }
+
+    @Nullable
+    static String parseTicket(@NonNull final InputStream in) throws IOException {
+        String ticket = null;
+        final JsonReader reader = newReader(in);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (JSON_TICKET.equals(reader.nextName())) {
+                    ticket = nextString(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (final IllegalStateException e) {
+            throw new IOException("Invalid JSON response from The Key", e);
+        } finally {
+            reader.close();
+        }
+        return ticket;
+    }
+
+    /**
+     * Parse the attributes response into attribute name/value pairs. Null, array and object values are returned as
+     * their JSON text, the same as {@link JSONObject#optString(String)}.
+     */
+    @NonNull
+    static Map<String, String> parseAttributes(@NonNull final InputStream in) throws IOException {
+        final Map<String, String> attributes = new LinkedHashMap<>();
+        final JsonReader reader = newReader(in);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                switch (reader.peek()) {
+                    case STRING:
+                    case NUMBER:
+                    case BOOLEAN:
+                        attributes.put(name, nextString(reader));
+                        break;
+                    default:
+                        attributes.put(name, String.valueOf(nextJsonValue(reader)));
+                }
+            }
+            reader.endObject();
+        } catch (final IllegalStateException | JSONException e) {
+            throw new IOException("Invalid JSON response from The Key", e);
+        } finally {
+            reader.close();
+        }
+        return attributes;
+    }
+
+    /**
+     * Parse a response into a {@link JSONObject}. This is only used for error responses, which are exposed to
+     * callers as JSON via {@link me.thekey.android.exception.TheKeyApiError#getJsonResponse()}.
+     */
+    @NonNull
+    static JSONObject parseJsonObject(@NonNull final InputStream in) throws IOException {
+        final Reader reader = new InputStreamReader(in, "UTF-8");
+        final StringBuilder json = new StringBuilder();
+        try {
+            final char[] buffer = new char[1024];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                json.append(buffer, 0, count);
+            }
+        } finally {
+            reader.close();
+        }
+
+        try {
+            return new JSONObject(json.toString());
+        } catch (final JSONException e) {
+            throw new IOException("Invalid JSON response from The Key", e);
+        }
+    }
+
+    @NonNull
+    private static JsonReader newReader(@NonNull final InputStream in) throws IOException {
+        return new JsonReader(new InputStreamReader(in, "UTF-8"));
+    }
+
+    /**
+     * @return the next value as an org.json value: a {@link JSONObject}, {@link JSONArray}, String, Number, Boolean or
+     * {@link JSONObject#NULL}.
+     */
+    @NonNull
+    private static Object nextJsonValue(@NonNull final JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                final JSONObject obj = new JSONObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    obj.put(reader.nextName(), nextJsonValue(reader));
+                }
+                reader.endObject();
+                return obj;
+            case BEGIN_ARRAY:
+                final JSONArray array = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.put(nextJsonValue(reader));
+                }
+                reader.endArray();
+                return array;
+            case STRING:
+                return reader.nextString();
+            case NUMBER:
+                return new JSONTokener(reader.nextString()).nextValue();
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                throw new IllegalStateException("Unexpected JSON token: " + reader.peek());
+        }
+    }
+
+    /**
+     * @return the next scalar value as a String, or null if the value is null or an object/array (which is skipped).
+     */
+    @Nullable
+    private static String nextString(@NonNull final JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            case BOOLEAN:
+                return Boolean.toString(reader.nextBoolean());
+            case NULL:
+                reader.nextNull();
+                return null;
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package me.thekey.android.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+/**
+ * Lock-free histogram of request latencies, using exponentially sized buckets from 1 millisecond up to 1 minute.
+ * Percentiles are reported as the upper bound of the bucket they fall in, so they are accurate to within 25%.
+ */
+public final class LatencyHistogram {
+    private static final long MIN_BOUND = 1;
+    private static final long MAX_BOUND = 60 * 1000;
+    private static final double BUCKET_GROWTH = 1.25;
+
+    private static final long[] BOUNDS;
+    static {
+        final List<Long> bounds = new ArrayList<>();
+        for (double bound = MIN_BOUND; bound < MAX_BOUND; bound *= BUCKET_GROWTH) {
+            final long rounded = Math.round(bound);
+            if (bounds.isEmpty() || bounds.get(bounds.size() - 1) < rounded) {
+                bounds.add(rounded);
+            }
+        }
+        bounds.add(MAX_BOUND);
+
+        BOUNDS = new long[bounds.size()];
+        for (int i = 0; i < BOUNDS.length; i++) {
+            BOUNDS[i] = bounds.get(i);
+        }
+    }
+
+    // one counter per bound, plus a final counter for latencies exceeding MAX_BOUND
+    private final AtomicLongArray mCounts = new AtomicLongArray(BOUNDS.length + 1);
+
+    /**
+     * @param latency the observed latency in milliseconds
+     */
+    @AnyThread
+    public void record(final long latency) {
+        mCounts.incrementAndGet(bucket(latency));
+    }
+
+    @AnyThread
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < mCounts.length(); i++) {
+            count += mCounts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile the percentile to look up, between 0.0 and 1.0
+     * @return the latency in milliseconds that the specified percentile of recorded latencies did not exceed, or 0 if
+     * no latencies have been recorded.
+     */
+    @AnyThread
+    public long getPercentile(final double percentile) {
+        final long[] counts = getBucketCounts();
+        long total = 0;
+        for (final long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(total * Math.min(Math.max(percentile, 0), 1)));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i < BOUNDS.length ? BOUNDS[i] : Long.MAX_VALUE;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the inclusive upper bound in milliseconds of each bucket, a final overflow bucket without an upper bound
+     * follows the last bound.
+     */
+    @NonNull
+    @AnyThread
+    public long[] getBucketBounds() {
+        return BOUNDS.clone();
+    }
+
+    /**
+     * @return a snapshot of the number of latencies recorded in each bucket, including the final overflow bucket.
+     */
+    @NonNull
+    @AnyThread
+    public long[] getBucketCounts() {
+        final long[] counts = new long[mCounts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return counts;
+    }
+
+    @AnyThread
+    public void reset() {
+        for (int i = 0; i < mCounts.length(); i++) {
+            mCounts.set(i, 0);
+        }
+    }
+
+    private static int bucket(final long latency) {
+        // binary search for the first bound >= latency
+        int low = 0;
+        int high = BOUNDS.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (BOUNDS[mid] < latency) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -4,15 +4,11 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.text.TextUtils;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
@@ -23,18 +19,19 @@ import me.thekey.android.Attributes;
 
 import static androidx.annotation.RestrictTo.Scope.LIBRARY;
 import static androidx.annotation.RestrictTo.Scope.SUBCLASSES;
-import static me.thekey.android.core.Constants.OAUTH_PARAM_ACCESS_TOKEN;
-import static me.thekey.android.core.Constants.OAUTH_PARAM_THEKEY_USERNAME;
 
 @RestrictTo(LIBRARY)
 final class PreferenceTheKeyImpl extends TheKeyImpl {
     private static final String PREFFILE_THEKEY = "thekey";
     static final String PREF_ACCESS_TOKEN = "access_token";
     static final String PREF_EXPIRE_TIME = "expire_time";
+    static final String PREF_ISSUE_TIME = "issue_time";
     static final String PREF_USERNAME = "username";
     static final String PREF_GUID = "guid";
     static final String PREF_REFRESH_TOKEN = "refresh_token";
     static final String PREF_ATTR_LOAD_TIME = "attr_load_time";
+    static final String PREF_ATTR_ETAG = "attr_etag";
+    static final String PREF_ATTR_LAST_MODIFIED = "attr_last_modified";
     static final String PREF_ATTR_PREFIX = "attr.";
 
     private final Object mLockPrefs = new Object();
@@ -66,9 +63,9 @@ final class PreferenceTheKeyImpl extends TheKeyImpl {
         synchronized (mLockPrefs) {
             if (TextUtils.equals(guid, getSessionGuid())) {
                 // return the attributes for the current OAuth session
-                return new AttributesImpl(getPrefs().getAll());
+                return new AttributesImpl(this, getPrefs().getAll());
             } else {
-                return new AttributesImpl(Collections.emptyMap());
+                return new AttributesImpl(this, Collections.emptyMap());
             }
         }
     }
@@ -80,51 +77,49 @@ final class PreferenceTheKeyImpl extends TheKeyImpl {
 
     @Override
     @RestrictTo(SUBCLASSES)
-    boolean storeGrants(@NonNull final String guid, @NonNull final JSONObject json) {
-        try {
-            final SharedPreferences.Editor prefs = this.getPrefs().edit();
-
-            // store access_token
-            if (json.has(OAUTH_PARAM_ACCESS_TOKEN)) {
-                prefs.putString(PREF_ACCESS_TOKEN, json.getString(OAUTH_PARAM_ACCESS_TOKEN));
-                prefs.remove(PREF_EXPIRE_TIME);
-                if (json.has(JSON_EXPIRES_IN)) {
-                    prefs.putLong(PREF_EXPIRE_TIME, System.currentTimeMillis() + json.getLong(JSON_EXPIRES_IN) * 1000);
-                }
-                prefs.remove(PREF_GUID);
-                prefs.remove(PREF_USERNAME);
-                if (json.has(JSON_THEKEY_GUID)) {
-                    prefs.putString(PREF_GUID, json.getString(JSON_THEKEY_GUID));
-                }
-                if (json.has(OAUTH_PARAM_THEKEY_USERNAME)) {
-                    prefs.putString(PREF_USERNAME, json.getString(OAUTH_PARAM_THEKEY_USERNAME));
-                }
-            }
+    boolean storeGrants(@NonNull final String guid, @NonNull final Grants grants) {
+        final SharedPreferences.Editor prefs = this.getPrefs().edit();
 
-            // store refresh_token
-            if (json.has(JSON_REFRESH_TOKEN)) {
-                prefs.putString(PREF_REFRESH_TOKEN, json.getString(JSON_REFRESH_TOKEN));
+        // store access_token
+        if (grants.accessToken != null) {
+            final long issueTime = currentTimeMillis();
+            prefs.putString(PREF_ACCESS_TOKEN, grants.accessToken);
+            prefs.putLong(PREF_ISSUE_TIME, issueTime);
+            prefs.remove(PREF_EXPIRE_TIME);
+            if (grants.expiresIn > 0) {
+                prefs.putLong(PREF_EXPIRE_TIME, AccessToken.getExpireTime(issueTime, grants.expiresIn));
             }
+            prefs.remove(PREF_GUID);
+            prefs.remove(PREF_USERNAME);
+            if (grants.guid != null) {
+                prefs.putString(PREF_GUID, grants.guid);
+            }
+            if (grants.username != null) {
+                prefs.putString(PREF_USERNAME, grants.username);
+            }
+        }
 
-            // we synchronize actual update to prevent race conditions
-            final String oldGuid;
-            synchronized (mLockPrefs) {
-                oldGuid = getPrefs().getString(PREF_GUID, null);
+        // store refresh_token
+        if (grants.refreshToken != null) {
+            prefs.putString(PREF_REFRESH_TOKEN, grants.refreshToken);
+        }
 
-                // store updates
-                prefs.apply();
-            }
+        // we synchronize actual update to prevent race conditions
+        final String oldGuid;
+        synchronized (mLockPrefs) {
+            oldGuid = getPrefs().getString(PREF_GUID, null);
 
-            // trigger logout/login broadcasts based on guid changes
-            final String newGuid = json.optString(JSON_THEKEY_GUID, null);
-            if (oldGuid != null && !oldGuid.equals(newGuid)) {
-                mEventsManager.logoutEvent(oldGuid, newGuid != null);
-            }
-            if (newGuid != null && !newGuid.equals(oldGuid)) {
-                mEventsManager.loginEvent(newGuid);
-            }
-        } catch (final JSONException e) {
-            clearAuthState(guid, true);
+            // store updates
+            prefs.apply();
+        }
+
+        // trigger logout/login broadcasts based on guid changes
+        final String newGuid = grants.guid;
+        if (oldGuid != null && !oldGuid.equals(newGuid)) {
+            mEventsManager.logoutEvent(oldGuid, newGuid != null);
+        }
+        if (newGuid != null && !newGuid.equals(oldGuid)) {
+            mEventsManager.loginEvent(newGuid);
         }
 
         return true;
@@ -132,7 +127,7 @@ final class PreferenceTheKeyImpl extends TheKeyImpl {
 
     @Nullable
     @Override
-    String getRefreshToken(@NonNull final String guid) {
+    String getStoredRefreshToken(@NonNull final String guid) {
         final Map<String, ?> attrs = getPrefs().getAll();
         if (guid.equals(attrs.get(PREF_GUID))) {
             return (String) attrs.get(PREF_REFRESH_TOKEN);
@@ -141,7 +136,7 @@ final class PreferenceTheKeyImpl extends TheKeyImpl {
     }
 
     @Override
-    void removeRefreshToken(@NonNull final String guid, @NonNull final String token) {
+    void removeStoredRefreshToken(@NonNull final String guid, @NonNull final String token) {
         final SharedPreferences.Editor prefs = getPrefs().edit();
         prefs.remove(PREF_REFRESH_TOKEN);
 
@@ -159,21 +154,23 @@ final class PreferenceTheKeyImpl extends TheKeyImpl {
 
     @Nullable
     @Override
-    String getAccessToken(@NonNull final String guid) {
+    AccessToken getStoredAccessToken(@NonNull final String guid) {
         final Map<String, ?> attrs = getPrefs().getAll();
-        final long currentTime = System.currentTimeMillis();
-        final Long rawExpireTime = (Long) attrs.get(PREF_EXPIRE_TIME);
-        final long expireTime = rawExpireTime != null ? rawExpireTime : currentTime;
-
-        // return access_token only if it hasn't expired (and is for the requested user)
-        return expireTime >= currentTime && guid.equals(attrs.get(PREF_GUID)) ? (String) attrs.get(PREF_ACCESS_TOKEN) :
-                null;
+        final String token = (String) attrs.get(PREF_ACCESS_TOKEN);
+        final Long issueTime = (Long) attrs.get(PREF_ISSUE_TIME);
+        final Long expireTime = (Long) attrs.get(PREF_EXPIRE_TIME);
+
+        // return access_token only if it is for the requested user
+        return token != null && guid.equals(attrs.get(PREF_GUID)) ?
+                new AccessToken(token, issueTime != null ? issueTime : AccessToken.UNKNOWN_TIME,
+                                expireTime != null ? expireTime : AccessToken.UNKNOWN_TIME) : null;
     }
 
     @Override
-    void removeAccessToken(@NonNull final String guid, @NonNull final String token) {
+    void removeStoredAccessToken(@NonNull final String guid, @NonNull final String token) {
         final SharedPreferences.Editor prefs = getPrefs().edit();
         prefs.remove(PREF_ACCESS_TOKEN);
+        prefs.remove(PREF_ISSUE_TIME);
         prefs.remove(PREF_EXPIRE_TIME);
 
         synchronized (mLockPrefs) {
@@ -189,7 +186,8 @@ final class PreferenceTheKeyImpl extends TheKeyImpl {
     }
 
     @Override
-    void storeAttributes(@NonNull final String guid, @NonNull final JSONObject json) {
+    void storeAttributes(@NonNull final String guid, @NonNull final Map<String, String> attributes,
+                         @Nullable final CacheValidators validators) {
         // we synchronize this to prevent race conditions with getCachedAttributes
         synchronized (mLockPrefs) {
             // short-circuit if the specified guid is different from the stored session
@@ -197,19 +195,55 @@ final class PreferenceTheKeyImpl extends TheKeyImpl {
                 return;
             }
 
-            // apply updates
+            // only write the attributes that were added, changed or removed since the current snapshot
+            final Map<String, ?> current = getPrefs().getAll();
             final SharedPreferences.Editor prefs = getPrefs().edit();
-            removeOldAttributes(prefs);
-            prefs.putLong(PREF_ATTR_LOAD_TIME, System.currentTimeMillis());
-            final Iterator<String> attrs = json.keys();
-            while (attrs.hasNext()) {
-                final String key = attrs.next();
-                prefs.putString(PREF_ATTR_PREFIX + key, json.optString(key, null));
+            for (final String key : current.keySet()) {
+                if (key.startsWith(PREF_ATTR_PREFIX) &&
+                        !attributes.containsKey(key.substring(PREF_ATTR_PREFIX.length()))) {
+                    prefs.remove(key);
+                }
             }
+            for (final Map.Entry<String, String> attr : attributes.entrySet()) {
+                final String key = PREF_ATTR_PREFIX + attr.getKey();
+                if (!attr.getValue().equals(current.get(key))) {
+                    prefs.putString(key, attr.getValue());
+                }
+            }
+            prefs.putLong(PREF_ATTR_LOAD_TIME, currentTimeMillis());
+            prefs.putString(PREF_ATTR_ETAG, validators != null ? validators.etag : null);
+            prefs.putString(PREF_ATTR_LAST_MODIFIED, validators != null ? validators.lastModified : null);
             prefs.apply();
         }
     }
 
+    @Nullable
+    @Override
+    CacheValidators getStoredAttributeValidators(@NonNull final String guid) {
+        final Map<String, ?> attrs = getPrefs().getAll();
+        if (!guid.equals(attrs.get(PREF_GUID)) || !attrs.containsKey(PREF_ATTR_LOAD_TIME)) {
+            return null;
+        }
+
+        final String etag = (String) attrs.get(PREF_ATTR_ETAG);
+        final String lastModified = (String) attrs.get(PREF_ATTR_LAST_MODIFIED);
+        return etag != null || lastModified != null ? new CacheValidators(etag, lastModified) : null;
+    }
+
+    @Override
+    boolean touchAttributes(@NonNull final String guid) {
+        // we synchronize this to prevent race conditions with getCachedAttributes
+        synchronized (mLockPrefs) {
+            // short-circuit if the specified guid is different from the stored session or there are no attributes
+            if (!TextUtils.equals(guid, getSessionGuid()) || !getPrefs().contains(PREF_ATTR_LOAD_TIME)) {
+                return false;
+            }
+
+            getPrefs().edit().putLong(PREF_ATTR_LOAD_TIME, currentTimeMillis()).apply();
+            return true;
+        }
+    }
+
     @Override
     void removeAttributes(@NonNull final String guid) {
         final SharedPreferences.Editor prefs = getPrefs().edit();
@@ -230,6 +264,8 @@ final class PreferenceTheKeyImpl extends TheKeyImpl {
     private void removeOldAttributes(final SharedPreferences.Editor prefs) {
         // remove all stored attributes
         prefs.remove(PREF_ATTR_LOAD_TIME);
+        prefs.remove(PREF_ATTR_ETAG);
+        prefs.remove(PREF_ATTR_LAST_MODIFIED);
         for (final String key : getPrefs().getAll().keySet()) {
             if (key.startsWith(PREF_ATTR_PREFIX)) {
                 prefs.remove(key);
@@ -238,10 +274,11 @@ final class PreferenceTheKeyImpl extends TheKeyImpl {
     }
 
     @Override
-    void clearAuthState(@NonNull final String guid, final boolean sendBroadcast) {
+    void clearStoredAuthState(@NonNull final String guid, final boolean sendBroadcast) {
         final SharedPreferences.Editor prefs = this.getPrefs().edit();
         prefs.remove(PREF_ACCESS_TOKEN);
         prefs.remove(PREF_REFRESH_TOKEN);
+        prefs.remove(PREF_ISSUE_TIME);
         prefs.remove(PREF_EXPIRE_TIME);
         prefs.remove(PREF_GUID);
         prefs.remove(PREF_USERNAME);
@@ -270,10 +307,21 @@ final class PreferenceTheKeyImpl extends TheKeyImpl {
             final SharedPreferences.Editor prefs = getPrefs().edit();
             prefs.putString(PREF_GUID, account.guid);
             prefs.putString(PREF_USERNAME, account.attributes.getUsername());
-            prefs.putString(PREF_ACCESS_TOKEN, account.accessToken);
+            prefs.remove(PREF_ACCESS_TOKEN);
+            prefs.remove(PREF_ISSUE_TIME);
+            prefs.remove(PREF_EXPIRE_TIME);
+            if (account.accessToken != null) {
+                prefs.putString(PREF_ACCESS_TOKEN, account.accessToken.token);
+                if (account.accessToken.issueTime != AccessToken.UNKNOWN_TIME) {
+                    prefs.putLong(PREF_ISSUE_TIME, account.accessToken.issueTime);
+                }
+                if (account.accessToken.expireTime != AccessToken.UNKNOWN_TIME) {
+                    prefs.putLong(PREF_EXPIRE_TIME, account.accessToken.expireTime);
+                }
+            }
             prefs.putString(PREF_REFRESH_TOKEN, account.refreshToken);
 
-            prefs.putLong(PREF_ATTR_LOAD_TIME, account.attributes.getLoadedTime().getTime());
+            prefs.putLong(PREF_ATTR_LOAD_TIME, toServerTime(account.attributes.getLoadedTime().getTime()));
             for (final String name : account.attributes.getAttributeNames()) {
                 prefs.putString(PREF_ATTR_PREFIX + name, account.attributes.getAttribute(name));
             }
@@ -289,20 +337,26 @@ final class PreferenceTheKeyImpl extends TheKeyImpl {
     private static final class AttributesImpl implements Attributes {
         private final Map<String, ?> mAttrs;
         private final boolean mValid;
+        private final long mLoadedTime;
 
         @Nullable
         private transient Set<String> mAttrNames;
 
-        AttributesImpl(final Map<String, ?> prefsMap) {
+        AttributesImpl(@NonNull final TheKeyImpl theKey, final Map<String, ?> prefsMap) {
             mAttrs = new HashMap<String, Object>(prefsMap);
             mAttrs.remove(PREF_ACCESS_TOKEN);
             mAttrs.remove(PREF_REFRESH_TOKEN);
+            mAttrs.remove(PREF_ISSUE_TIME);
             mAttrs.remove(PREF_EXPIRE_TIME);
 
             // determine if the attributes are valid
             final String guid = (String) mAttrs.get(PREF_GUID);
             mValid = mAttrs.containsKey(PREF_ATTR_LOAD_TIME) &&
                     guid != null && guid.equalsIgnoreCase((String) mAttrs.get(PREF_ATTR_PREFIX + ATTR_SSO_GUID));
+
+            // the load time is stored using the server clock, expose it using the device clock
+            final Long time = mValid ? (Long) mAttrs.get(PREF_ATTR_LOAD_TIME) : null;
+            mLoadedTime = theKey.toDeviceTime(time != null ? time : 0);
         }
 
         @Nullable
@@ -326,8 +380,7 @@ final class PreferenceTheKeyImpl extends TheKeyImpl {
         @NonNull
         @Override
         public Date getLoadedTime() {
-            final Long time = mValid ? (Long) mAttrs.get(PREF_ATTR_LOAD_TIME) : null;
-            return new Date(time != null ? time : 0);
+            return new Date(mLoadedTime);
         }
 
         @NonNull
@@ -0,0 +1,65 @@
+package me.thekey.android.core;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.RestrictTo;
+import me.thekey.android.exception.TheKeyRateLimitedException;
+
+import static androidx.annotation.RestrictTo.Scope.LIBRARY;
+
+/**
+ * Shared cooldown for all requests to a CAS server. Once any endpoint rate limits us, every request fails fast until
+ * the cooldown requested by the server expires, instead of piling more requests onto the server.
+ */
+@RestrictTo(LIBRARY)
+final class RateLimitGate {
+    // cooldown used when the server doesn't tell us how long to wait
+    private static final long DEFAULT_COOLDOWN = 30 * 1000;
+    // cap on the cooldown in case the server returns an absurd Retry-After value
+    private static final long MAX_COOLDOWN = 60 * 60 * 1000;
+
+    // the SystemClock.elapsedRealtime() when requests are allowed again
+    private final AtomicLong mCooldownUntil = new AtomicLong(0);
+
+    /**
+     * @return true if we are not currently rate limited.
+     */
+    @AnyThread
+    boolean isOpen() {
+        return mCooldownUntil.get() <= SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * @throws TheKeyRateLimitedException if we are currently rate limited.
+     */
+    @AnyThread
+    void checkOpen() throws TheKeyRateLimitedException {
+        final long remaining = mCooldownUntil.get() - SystemClock.elapsedRealtime();
+        if (remaining > 0) {
+            throw new TheKeyRateLimitedException(remaining);
+        }
+    }
+
+    /**
+     * Start a cooldown after being rate limited.
+     *
+     * @param retryAfter how long (in milliseconds) the server asked us to wait, or 0 if unknown
+     * @return the exception to throw for the rate limited request
+     */
+    @AnyThread
+    TheKeyRateLimitedException rateLimited(final long retryAfter) {
+        final long cooldown = Math.min(retryAfter > 0 ? retryAfter : DEFAULT_COOLDOWN, MAX_COOLDOWN);
+        final long until = SystemClock.elapsedRealtime() + cooldown;
+
+        // never shorten a cooldown that is already in effect
+        long current;
+        do {
+            current = mCooldownUntil.get();
+        } while (current < until && !mCooldownUntil.compareAndSet(current, until));
+
+        return new TheKeyRateLimitedException(Math.max(current, until) - SystemClock.elapsedRealtime());
+    }
+}
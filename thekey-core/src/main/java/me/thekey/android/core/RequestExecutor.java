@@ -0,0 +1,37 @@
+package me.thekey.android.core;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+
+import static androidx.annotation.RestrictTo.Scope.LIBRARY;
+
+/**
+ * Executor for requests that a blocking API call sends in parallel. Callers block waiting on these requests, so they
+ * can't share a bounded pool (e.g. AsyncTask's) that the callers themselves may be running on. Idle threads are
+ * released after a minute.
+ */
+@RestrictTo(LIBRARY)
+final class RequestExecutor {
+    private static final long THREAD_KEEP_ALIVE = 60 * 1000;
+
+    private RequestExecutor() { }
+
+    private static final class Holder {
+        static final Executor INSTANCE = new ThreadPoolExecutor(
+                0, Integer.MAX_VALUE, THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, new SynchronousQueue<>(), r -> {
+                    final Thread thread = new Thread(r, "TheKey-Request");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @NonNull
+    static Executor get() {
+        return Holder.INSTANCE;
+    }
+}
@@ -0,0 +1,128 @@
+package me.thekey.android.core;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.WorkerThread;
+import me.thekey.android.exception.TheKeySocketException;
+
+import static androidx.annotation.RestrictTo.Scope.LIBRARY;
+
+/**
+ * Hedges latency-critical requests. When a request hasn't completed within the configured percentile of its observed
+ * latencies, a single duplicate request is sent and whichever completes first is used. Each call is hedged at most
+ * once, so hedging never more than doubles the load on the server.
+ */
+@RestrictTo(LIBRARY)
+final class RequestHedger {
+    interface Request<T> {
+        @Nullable
+        @WorkerThread
+        T execute() throws TheKeySocketException;
+    }
+
+    // don't hedge until we have enough samples for a meaningful percentile
+    private static final int MIN_SAMPLES = 20;
+
+    @NonNull
+    private final LatencyHistogram mHistogram = new LatencyHistogram();
+    private final double mPercentile;
+
+    /**
+     * @param percentile the latency percentile after which a request is hedged, 0 or less disables hedging
+     */
+    RequestHedger(final double percentile) {
+        mPercentile = percentile;
+    }
+
+    @NonNull
+    LatencyHistogram getHistogram() {
+        return mHistogram;
+    }
+
+    @Nullable
+    @WorkerThread
+    <T> T execute(@NonNull final Request<T> request, @NonNull final Deadline deadline) throws TheKeySocketException {
+        final long hedgeDelay = mPercentile > 0 && mHistogram.getCount() >= MIN_SAMPLES ?
+                mHistogram.getPercentile(mPercentile) : 0;
+        if (hedgeDelay <= 0 || hedgeDelay >= deadline.remaining()) {
+            return executeAndRecord(request);
+        }
+
+        final CompletionService<T> completion = new ExecutorCompletionService<>(RequestExecutor.get());
+        final Callable<T> task = () -> executeAndRecord(request);
+        final Future<T> primary = completion.submit(task);
+        Future<T> hedge = null;
+        try {
+            Future<T> done = completion.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+            int pending = 1;
+            if (done == null) {
+                // the primary request is slow, send the hedge request
+                hedge = completion.submit(task);
+                pending++;
+            }
+
+            ExecutionException failure = null;
+            while (pending > 0) {
+                if (done == null) {
+                    done = completion.poll(deadline.remaining(), TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        throw new TheKeySocketException("deadline exceeded");
+                    }
+                }
+                pending--;
+
+                try {
+                    return done.get();
+                } catch (final ExecutionException e) {
+                    // wait for the other request if there is one
+                    failure = e;
+                }
+                done = null;
+            }
+            throw rethrow(failure);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TheKeySocketException("interrupted", e);
+        } finally {
+            // abandon whichever request lost
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    @Nullable
+    @WorkerThread
+    private <T> T executeAndRecord(@NonNull final Request<T> request) throws TheKeySocketException {
+        final long start = SystemClock.elapsedRealtime();
+        final T result = request.execute();
+        mHistogram.record(SystemClock.elapsedRealtime() - start);
+        return result;
+    }
+
+    @NonNull
+    private static TheKeySocketException rethrow(@Nullable final ExecutionException failure) {
+        final Throwable cause = failure != null ? failure.getCause() : null;
+        if (cause instanceof TheKeySocketException) {
+            return (TheKeySocketException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new TheKeySocketException("hedged request failed", cause);
+    }
+}
@@ -0,0 +1,28 @@
+package me.thekey.android.core;
+
+import java.io.IOException;
+
+import androidx.annotation.NonNull;
+import me.thekey.android.core.transport.HttpRequest;
+
+/**
+ * Decides whether a request to the CAS server that failed with a transient {@link IOException} should be retried.
+ * Only idempotent requests are ever retried, one-time requests such as authorization code grants are never replayed.
+ * Retries are always bounded by the deadline of the API call making the request.
+ */
+public interface RetryPolicy {
+    long NO_RETRY = -1;
+
+    /**
+     * A {@link RetryPolicy} that never retries requests.
+     */
+    RetryPolicy NONE = (request, attempt, error) -> NO_RETRY;
+
+    /**
+     * @param request the request that failed
+     * @param attempt the number of attempts made so far, starting at 1
+     * @param error   the error the last attempt failed with
+     * @return the delay in milliseconds before the next attempt, or {@link #NO_RETRY} to stop retrying.
+     */
+    long getRetryDelay(@NonNull HttpRequest request, int attempt, @NonNull IOException error);
+}
@@ -0,0 +1,84 @@
+package me.thekey.android.core;
+
+import android.content.SharedPreferences;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+
+import static androidx.annotation.RestrictTo.Scope.LIBRARY;
+
+/**
+ * Tracks the offset between the device clock and the clock of the CAS server. The offset is estimated from the Date
+ * header of CAS responses and smoothed using an exponentially weighted moving average, so that a single delayed
+ * response doesn't skew the estimate.
+ */
+@RestrictTo(LIBRARY)
+final class ServerClock {
+    private static final String PREF_CLOCK_OFFSET = "clock_offset";
+
+    // weight given to each new sample
+    private static final double SMOOTHING_FACTOR = 0.25;
+    // the Date header only has a resolution of 1 second
+    private static final long DATE_RESOLUTION = 1000;
+    // don't persist the offset unless it moved by at least this much
+    private static final long PERSIST_THRESHOLD = 1000;
+    // samples from requests that took longer than this are too imprecise to be useful
+    private static final long MAX_ROUND_TRIP = 30 * 1000;
+
+    @NonNull
+    private final SharedPreferences mPrefs;
+
+    private volatile long mOffset;
+    private boolean mHasSample = false;
+    private long mPersistedOffset;
+
+    ServerClock(@NonNull final SharedPreferences prefs) {
+        mPrefs = prefs;
+        mPersistedOffset = prefs.getLong(PREF_CLOCK_OFFSET, 0);
+        mOffset = mPersistedOffset;
+    }
+
+    /**
+     * @return the estimated current time of the CAS server in milliseconds.
+     */
+    @AnyThread
+    long currentTimeMillis() {
+        return System.currentTimeMillis() + mOffset;
+    }
+
+    /**
+     * @return the estimated offset (in milliseconds) between the CAS server clock and the device clock.
+     */
+    @AnyThread
+    long getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * Update the offset estimate using the Date header of a CAS response.
+     *
+     * @param serverTime  the time in the Date header of the response, or 0 if unknown
+     * @param requestTime the device time when the request was sent
+     */
+    @AnyThread
+    void update(final long serverTime, final long requestTime) {
+        final long responseTime = System.currentTimeMillis();
+        if (serverTime <= 0 || responseTime < requestTime || responseTime - requestTime > MAX_ROUND_TRIP) {
+            return;
+        }
+
+        // assume the server generated the response half-way through the round trip, and that the true server time
+        // falls in the middle of the Date header resolution window
+        final long sample = serverTime + DATE_RESOLUTION / 2 - (requestTime + (responseTime - requestTime) / 2);
+        synchronized (this) {
+            mOffset = mHasSample ? Math.round(mOffset + SMOOTHING_FACTOR * (sample - mOffset)) : sample;
+            mHasSample = true;
+
+            if (Math.abs(mOffset - mPersistedOffset) >= PERSIST_THRESHOLD) {
+                mPersistedOffset = mOffset;
+                mPrefs.edit().putLong(PREF_CLOCK_OFFSET, mOffset).apply();
+            }
+        }
+    }
+}
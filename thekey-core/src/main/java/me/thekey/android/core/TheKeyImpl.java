@@ -7,27 +7,35 @@ import android.net.TrafficStats;
 import android.net.Uri;
 import android.net.Uri.Builder;
 import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-
-import javax.net.ssl.HttpsURLConnection;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
@@ -36,23 +44,35 @@ import androidx.annotation.RestrictTo;
 import androidx.annotation.WorkerThread;
 import kotlin.collections.ArraysKt;
 import me.thekey.android.Attributes;
+import me.thekey.android.FreshnessPolicy;
 import me.thekey.android.LoginUriBuilder;
 import me.thekey.android.TheKey;
 import me.thekey.android.TheKeyService;
+import me.thekey.android.TicketResult;
 import me.thekey.android.core.events.CompoundEventsManager;
+import me.thekey.android.core.transport.HttpRequest;
+import me.thekey.android.core.transport.HttpResponse;
+import me.thekey.android.core.transport.HttpTransport;
+import me.thekey.android.core.transport.UrlConnectionTransport;
 import me.thekey.android.events.EventsManager;
 import me.thekey.android.exception.RateLimitExceededApiError;
 import me.thekey.android.exception.TheKeyApiError;
 import me.thekey.android.exception.TheKeyInvalidSessionException;
+import me.thekey.android.exception.TheKeyRateLimitedException;
 import me.thekey.android.exception.TheKeySocketException;
 import timber.log.Timber;
 
 import static androidx.annotation.RestrictTo.Scope.LIBRARY_GROUP;
 import static androidx.annotation.RestrictTo.Scope.SUBCLASSES;
 import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
+import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
 import static java.net.HttpURLConnection.HTTP_OK;
 import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
 import static me.thekey.android.core.Constants.CAS_SERVER;
+import static me.thekey.android.core.Constants.DEFAULT_ACCESS_TOKEN_REFRESH_MARGIN;
+import static me.thekey.android.core.Constants.DEFAULT_PREFETCH_TICKET_TTL;
+import static me.thekey.android.core.Constants.DEFAULT_REQUEST_DEADLINE;
 import static me.thekey.android.core.Constants.DEFAULT_TRAFFIC_STATS_TAG;
 import static me.thekey.android.core.Constants.OAUTH_PARAM_ACCESS_TOKEN;
 import static me.thekey.android.core.Constants.OAUTH_PARAM_CLIENT_ID;
@@ -60,6 +80,10 @@ import static me.thekey.android.core.Constants.OAUTH_PARAM_ERROR;
 import static me.thekey.android.core.Constants.OAUTH_PARAM_REDIRECT_URI;
 import static me.thekey.android.core.Constants.OAUTH_PARAM_RESPONSE_TYPE;
 import static me.thekey.android.core.Constants.OAUTH_RESPONSE_TYPE_CODE;
+import static me.thekey.android.core.JsonResponseParser.parseAttributes;
+import static me.thekey.android.core.JsonResponseParser.parseGrants;
+import static me.thekey.android.core.JsonResponseParser.parseJsonObject;
+import static me.thekey.android.core.JsonResponseParser.parseTicket;
 import static me.thekey.android.core.PkceUtils.encodeS256Challenge;
 import static me.thekey.android.core.PkceUtils.generateUrlSafeBase64String;
 import static me.thekey.android.core.PkceUtils.generateVerifier;
@@ -73,7 +97,14 @@ public abstract class TheKeyImpl implements TheKey {
     private static final String PREF_DEFAULT_GUID = "default_guid";
 
     private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final String HEADER_DATE = "Date";
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
     private static final int LIMIT_LOAD_ATTRIBUTES = 3;
+    private static final int MAX_PARALLEL_TICKETS = 4;
+    // don't warm up a connection more often than this
+    private static final long WARM_UP_INTERVAL = 60 * 1000;
+    // access_tokens expiring within this window trigger a connection warm-up for the upcoming refresh
+    private static final long WARM_UP_EXPIRY_WINDOW = 2 * 60 * 1000;
 
     private static final Object INSTANCE_LOCK = new Object();
     @Nullable
@@ -81,7 +112,29 @@ public abstract class TheKeyImpl implements TheKey {
     @SuppressLint("StaticFieldLeak")
     private static TheKeyImpl sInstance = null;
 
-    private final Map<String, Object> mLockAuth = new HashMap<>();
+    private final ConcurrentMap<String, RefreshTask> mPendingRefreshes = new ConcurrentHashMap<>();
+    private final Set<String> mPendingAttributeRefreshes =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    @Nullable
+    private final AccessTokenRefreshScheduler mRefreshScheduler;
+    private final TokenCache mTokenCache = new TokenCache();
+    private final RateLimitGate mRateLimitGate = new RateLimitGate();
+    @NonNull
+    private final HttpTransport mTransport;
+    @NonNull
+    private final RetryPolicy mRetryPolicy;
+    @NonNull
+    private final CircuitBreaker mCircuitBreaker;
+    @NonNull
+    private final ConnectivityMonitor mConnectivityMonitor;
+    @NonNull
+    private final RequestHedger mTicketHedger;
+    @Nullable
+    private final TicketPool mTicketPool;
+    // the SystemClock.elapsedRealtime() of the last connection warm-up
+    private final AtomicLong mLastWarmUp = new AtomicLong(-WARM_UP_INTERVAL);
+    @NonNull
+    private final ServerClock mServerClock;
 
     @NonNull
     @RestrictTo(SUBCLASSES)
@@ -114,10 +167,30 @@ public abstract class TheKeyImpl implements TheKey {
             throw new IllegalStateException("client_id is invalid or not provided");
         }
         mDefaultGuid = getPrefs().getString(PREF_DEFAULT_GUID, null);
+        mServerClock = new ServerClock(getPrefs());
+        mTransport = mConfig.mTransport != null ? mConfig.mTransport : new UrlConnectionTransport();
+        mRetryPolicy = mConfig.mRetryPolicy != null ? mConfig.mRetryPolicy : new ExponentialBackoffRetryPolicy();
+        mCircuitBreaker = mConfig.mCircuitBreaker != null ? mConfig.mCircuitBreaker : new CircuitBreaker();
+        mTicketHedger = new RequestHedger(mConfig.mTicketHedgePercentile);
+        mTicketPool = mConfig.mPrefetchTicketServices.length > 0 ?
+                new TicketPool(this::fetchTicket, mConfig.mPrefetchTicketServices, mConfig.mPrefetchTicketTtl) :
+                null;
+        if (mTicketPool != null) {
+            mEventsManager.addEventsManager(mTicketPool);
+        }
+        mConnectivityMonitor = new ConnectivityMonitor(mConfig.mConnectivitySource != null ?
+                mConfig.mConnectivitySource : new AndroidConnectivitySource(mContext), this::loadAttributes);
 
         mDefaultRedirectUri = mConfig.mDefaultRedirectUri != null ? mConfig.mDefaultRedirectUri :
                 getCasUri("oauth", "client", "public");
 
+        mRefreshScheduler = mConfig.mAccessTokenRefreshMargin >= 0 ?
+                new AccessTokenRefreshScheduler(this, mConfig.mAccessTokenRefreshMargin) : null;
+        if (mRefreshScheduler != null) {
+            mEventsManager.addEventsManager(mRefreshScheduler);
+        }
+
+        initService(mCircuitBreaker);
         initDefaultServices();
         for (final TheKeyService service : config.mServices) {
             initService(service);
@@ -127,12 +200,35 @@ public abstract class TheKeyImpl implements TheKey {
         }
 
         if (mConfig.mMigrationSource != null) {
-            mMigrationSource = createInstance(mContext, mConfig.mMigrationSource);
+            // the migration source is only used to read existing accounts, so don't start any background services
+            mMigrationSource = newInstance(mContext, mConfig.mMigrationSource.withoutBackgroundServices());
+            mMigrationSource.migrateAccounts();
         }
     }
 
     @NonNull
     private static TheKeyImpl createInstance(@NonNull final Context context, @NonNull final Configuration config) {
+        final TheKeyImpl instance = newInstance(context, config);
+
+        // trigger account migration for this instance
+        instance.migrateAccounts();
+
+        // schedule proactive refreshes for any existing sessions
+        if (instance.mRefreshScheduler != null) {
+            instance.mRefreshScheduler.scheduleSessions();
+        }
+
+        // prefetch tickets for the default session
+        final String guid = instance.getDefaultSessionGuid();
+        if (instance.mTicketPool != null && guid != null) {
+            instance.mTicketPool.prefetch(guid);
+        }
+
+        return instance;
+    }
+
+    @NonNull
+    private static TheKeyImpl newInstance(@NonNull final Context context, @NonNull final Configuration config) {
         final TheKeyImpl instance;
         if (TextUtils.isEmpty(config.mAccountType)) {
             instance = new PreferenceTheKeyImpl(context, config);
@@ -147,10 +243,6 @@ public abstract class TheKeyImpl implements TheKey {
                                                    "make sure thekey-accountmanager library is loaded", e);
             }
         }
-
-        // trigger account migration for this instance
-        instance.migrateAccounts();
-
         return instance;
     }
 
@@ -319,93 +411,128 @@ public abstract class TheKeyImpl implements TheKey {
             return false;
         }
 
+        final Deadline deadline = newDeadline();
         int attempts = 0;
         String accessToken;
-        while ((accessToken = getValidAccessToken(guid, 0)) != null) {
+        while ((accessToken = getValidAccessToken(guid, 0, deadline)) != null) {
             // limit number of retries for loading attributes
             if (++attempts > LIMIT_LOAD_ATTRIBUTES) {
                 return false;
             }
 
-            final int currTrafficTag = TrafficStats.getThreadStatsTag();
-            TrafficStats.setThreadStatsTag(mConfig.mTrafficTag);
-
-            // request the attributes from CAS
-            HttpsURLConnection conn = null;
-            try {
-                // generate & send request
-                final Uri attrsUri = this.getCasUri("api", "oauth", "attributes").buildUpon()
-                        .appendQueryParameter(OAUTH_PARAM_ACCESS_TOKEN, accessToken).build();
-                conn = (HttpsURLConnection) new URL(attrsUri.toString()).openConnection();
-
-                if (conn.getResponseCode() == HTTP_OK) {
-                    // parse the json response
-                    final JSONObject json = parseJsonResponse(conn.getInputStream());
-
-                    storeAttributes(guid, json);
-
-                    // broadcast that we just loaded the attributes
-                    mEventsManager.attributesUpdatedEvent(guid);
-
-                    // return that attributes were loaded
-                    return true;
-                } else if (conn.getResponseCode() == HTTP_UNAUTHORIZED) {
-                    // parse the Authenticate header
-                    final String auth = conn.getHeaderField("WWW-Authenticate");
-                    if (auth != null) {
-                        final HttpHeaderUtils.Challenge challenge = HttpHeaderUtils.parseChallenge(auth);
-
-                        // OAuth Bearer auth
-                        if ("BEARER".equals(challenge.getScheme())) {
-                            // extract the error encountered
-                            final String error = challenge.getParameterValue(OAUTH_PARAM_ERROR);
-                            if ("insufficient_scope".equals(error)) {
-                                removeAttributes(guid);
-                                return false;
-                            } else if ("invalid_token".equals(error)) {
-                                removeAccessToken(guid, accessToken);
-                                continue;
-                            }
+            // request the attributes from CAS, revalidating the cached attributes if possible
+            final Uri attrsUri = getCasUri("api", "oauth", "attributes").buildUpon()
+                    .appendQueryParameter(OAUTH_PARAM_ACCESS_TOKEN, accessToken).build();
+            HttpRequest request = HttpRequest.get(attrsUri);
+            final CacheValidators validators = getStoredAttributeValidators(guid);
+            if (validators != null) {
+                request = validators.applyTo(request);
+            }
+            final Boolean loaded = executeRequest(request, deadline, response -> {
+                switch (response.getCode()) {
+                    case HTTP_OK:
+                        storeAttributes(guid, parseAttributes(response.getBody()),
+                                        CacheValidators.fromResponse(response));
+
+                        // broadcast that we just loaded the attributes
+                        mEventsManager.attributesUpdatedEvent(guid);
+                        return true;
+                    case HTTP_NOT_MODIFIED:
+                        // the cached attributes are still current, just bump their load time
+                        if (!touchAttributes(guid)) {
+                            return false;
                         }
-                    }
-                } else if (conn.getResponseCode() == HTTP_TOO_MANY_REQUESTS) {
-                    if (attempts < LIMIT_LOAD_ATTRIBUTES) {
-                        // Rate Limiting Header
-                        final String retryAfter = conn.getHeaderField("Retry-After");
-                        if (retryAfter != null) {
-                            try {
-                                //noinspection BusyWait
-                                Thread.sleep(Long.parseLong(retryAfter) * 1000);
-                                continue;
-                            } catch (InterruptedException e) {
-                                Thread.currentThread().interrupt();
-                            } catch (NumberFormatException ignored) {
-                            }
+                        mEventsManager.attributesUpdatedEvent(guid);
+                        return true;
+                    case HTTP_UNAUTHORIZED:
+                        final String error = getBearerError(response);
+                        if ("insufficient_scope".equals(error)) {
+                            removeAttributes(guid);
+                            return false;
+                        } else if ("invalid_token".equals(error)) {
+                            return null;
                         }
-                    }
-
-                    return false;
-                }
-            } catch (final MalformedURLException e) {
-                throw new RuntimeException("malformed CAS URL", e);
-            } catch (final IOException e) {
-                throw new TheKeySocketException("connect error", e);
-            } finally {
-                if (conn != null) {
-                    conn.disconnect();
+                        return false;
+                    case HTTP_TOO_MANY_REQUESTS:
+                        throw rateLimited(response, 0);
+                    default:
+                        return false;
                 }
-                TrafficStats.setThreadStatsTag(currTrafficTag);
+            });
+            if (loaded != null) {
+                return loaded;
             }
 
-            // the access token didn't work, remove it and restart processing
+            // the access token was rejected, remove it and restart processing
             removeAccessToken(guid, accessToken);
         }
 
         return false;
     }
 
+    @NonNull
+    @Override
+    public final FreshnessPolicy getFreshnessPolicy() {
+        return mConfig.mFreshnessPolicy;
+    }
+
+    /**
+     * Load fresh attributes in the background. Concurrent refreshes of the same session are deduplicated, so any
+     * number of stale reads only trigger a single load. While the device is offline the refresh is deferred and
+     * replayed once connectivity returns.
+     */
+    @Override
+    @AnyThread
+    public final void refreshAttributesInBackground(@Nullable final String guid) {
+        if (guid == null || mConnectivityMonitor.deferAttributesLoad(guid) || !mPendingAttributeRefreshes.add(guid)) {
+            return;
+        }
+
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+            try {
+                loadAttributes(guid);
+            } catch (final TheKeySocketException e) {
+                Timber.tag("TheKey").d(e, "error refreshing attributes in the background");
+            } finally {
+                mPendingAttributeRefreshes.remove(guid);
+            }
+        });
+    }
+
+    /**
+     * @return the error of an OAuth Bearer WWW-Authenticate challenge in the response, if there is one.
+     */
+    @Nullable
+    private static String getBearerError(@NonNull final HttpResponse response) {
+        final String auth = response.getHeader("WWW-Authenticate");
+        if (auth != null) {
+            final HttpHeaderUtils.Challenge challenge = HttpHeaderUtils.parseChallenge(auth);
+            if ("BEARER".equals(challenge.getScheme())) {
+                return challenge.getParameterValue(OAUTH_PARAM_ERROR);
+            }
+        }
+        return null;
+    }
+
+    @RestrictTo(SUBCLASSES)
+    abstract void storeAttributes(@NonNull String guid, @NonNull Map<String, String> attributes,
+                                  @Nullable CacheValidators validators);
+
+    /**
+     * @return the cache validators of the stored attributes, or null if there are no validators or no attributes have
+     * been loaded.
+     */
+    @Nullable
     @RestrictTo(SUBCLASSES)
-    abstract void storeAttributes(@NonNull String guid, @NonNull JSONObject json);
+    abstract CacheValidators getStoredAttributeValidators(@NonNull String guid);
+
+    /**
+     * Mark the stored attributes as freshly loaded after the server confirmed they haven't changed.
+     *
+     * @return false if there are no stored attributes for the session.
+     */
+    @RestrictTo(SUBCLASSES)
+    abstract boolean touchAttributes(@NonNull String guid);
 
     @RestrictTo(SUBCLASSES)
     abstract void removeAttributes(@NonNull String guid);
@@ -415,10 +542,19 @@ public abstract class TheKeyImpl implements TheKey {
     @WorkerThread
     public final String getTicket(@NonNull final String guid, @NonNull final String service)
             throws TheKeySocketException {
+        // serve the ticket from the prefetch pool when possible
+        if (mTicketPool != null) {
+            final String ticket = mTicketPool.take(guid, service);
+            if (ticket != null) {
+                return ticket;
+            }
+        }
+
+        final Deadline deadline = newDeadline();
         String accessToken;
-        while ((accessToken = getValidAccessToken(guid, 0)) != null) {
+        while ((accessToken = getValidAccessToken(guid, 0, deadline)) != null) {
             // fetch a ticket
-            final String ticket = getTicketWithAccessToken(accessToken, service);
+            final String ticket = getTicketWithAccessToken(accessToken, service, deadline);
             if (ticket != null) {
                 return ticket;
             }
@@ -431,90 +567,412 @@ public abstract class TheKeyImpl implements TheKey {
         return null;
     }
 
-    @Nullable
+    @NonNull
+    @Override
     @WorkerThread
-    private String getTicketWithAccessToken(@NonNull final String accessToken, @NonNull final String service)
-            throws TheKeySocketException {
-        final int currTrafficTag = TrafficStats.getThreadStatsTag();
-        TrafficStats.setThreadStatsTag(mConfig.mTrafficTag);
+    public final Map<String, TicketResult> getTickets(@NonNull final String guid,
+                                                      @NonNull final Collection<String> services) {
+        final Map<String, TicketResult> results = new LinkedHashMap<>();
+        final LinkedHashSet<String> remaining = new LinkedHashSet<>();
+        for (final String service : services) {
+            // serve what we can from the prefetch pool
+            final String ticket = mTicketPool != null ? mTicketPool.take(guid, service) : null;
+            if (ticket != null) {
+                results.put(service, TicketResult.of(ticket));
+            } else {
+                remaining.add(service);
+            }
+        }
 
-        HttpsURLConnection conn = null;
+        // resolve the access_token once for the whole batch, and refresh it at most once if it's rejected
+        final Deadline deadline = newDeadline();
         try {
-            // generate & send request
-            final Uri ticketUri = getCasUri("api", "oauth", "ticket").buildUpon()
-                    .appendQueryParameter(OAUTH_PARAM_ACCESS_TOKEN, accessToken)
-                    .appendQueryParameter(PARAM_SERVICE, service).build();
-            conn = (HttpsURLConnection) new URL(ticketUri.toString()).openConnection();
+            String accessToken = getValidAccessToken(guid, 0, deadline);
+            for (int attempt = 0; attempt < 2 && accessToken != null && !remaining.isEmpty(); attempt++) {
+                final Map<String, TicketResult> batch = getTicketsWithAccessToken(accessToken, remaining, deadline);
+                for (final Iterator<String> i = remaining.iterator(); i.hasNext();) {
+                    final String service = i.next();
+                    final TicketResult result = batch.get(service);
+                    if (result != null) {
+                        results.put(service, result);
+                        i.remove();
+                    }
+                }
 
-            // parse the json response if we have a valid response
-            if (conn.getResponseCode() == HTTP_OK) {
-                final JSONObject json = parseJsonResponse(conn.getInputStream());
-                return json.optString(JSON_TICKET, null);
+                if (!remaining.isEmpty() && attempt == 0) {
+                    // the access token didn't work, remove it and retry the rejected services
+                    removeAccessToken(guid, accessToken);
+                    accessToken = getValidAccessToken(guid, 0, deadline);
+                }
             }
-        } catch (final MalformedURLException e) {
-            throw new IllegalStateException("malformed CAS URL", e);
-        } catch (final IOException e) {
-            throw new TheKeySocketException("connect error", e);
+        } catch (final TheKeySocketException e) {
+            for (final String service : remaining) {
+                results.put(service, TicketResult.error(e));
+            }
+            remaining.clear();
+        }
+
+        // the user needs to authenticate before the remaining tickets can be retrieved
+        for (final String service : remaining) {
+            results.put(service, TicketResult.of(null));
+        }
+
+        // return the results in the order the services were requested
+        final Map<String, TicketResult> ordered = new LinkedHashMap<>();
+        for (final String service : services) {
+            ordered.put(service, results.get(service));
+        }
+        return ordered;
+    }
+
+    /**
+     * Fetch tickets for multiple services in parallel, bounded by {@link #MAX_PARALLEL_TICKETS}.
+     *
+     * @return the result for each service, services whose ticket request rejected the access_token are omitted.
+     */
+    @NonNull
+    @WorkerThread
+    private Map<String, TicketResult> getTicketsWithAccessToken(@NonNull final String accessToken,
+                                                                @NonNull final Collection<String> services,
+                                                                @NonNull final Deadline deadline) {
+        final Map<String, TicketResult> results = new HashMap<>();
+        final CompletionService<TicketResult> completion = new ExecutorCompletionService<>(RequestExecutor.get());
+        final Map<Future<TicketResult>, String> inFlight = new HashMap<>();
+        final Iterator<String> pending = services.iterator();
+        try {
+            while (pending.hasNext() || !inFlight.isEmpty()) {
+                // keep up to MAX_PARALLEL_TICKETS requests in flight
+                while (pending.hasNext() && inFlight.size() < MAX_PARALLEL_TICKETS) {
+                    final String service = pending.next();
+                    inFlight.put(completion.submit(() -> {
+                        try {
+                            final String ticket = getTicketWithAccessToken(accessToken, service, deadline);
+                            return ticket != null ? TicketResult.of(ticket) : null;
+                        } catch (final TheKeySocketException e) {
+                            return TicketResult.error(e);
+                        }
+                    }), service);
+                }
+
+                final Future<TicketResult> done = completion.poll(deadline.remaining(), TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    break;
+                }
+                final String service = inFlight.remove(done);
+                final TicketResult result = done.get();
+                if (result != null) {
+                    results.put(service, result);
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (RuntimeException) cause;
         } finally {
-            if (conn != null) {
-                conn.disconnect();
+            for (final Future<TicketResult> future : inFlight.keySet()) {
+                future.cancel(true);
             }
+        }
 
-            TrafficStats.setThreadStatsTag(currTrafficTag);
+        // any requests that didn't complete ran out of time
+        final List<String> incomplete = new ArrayList<>(inFlight.values());
+        while (pending.hasNext()) {
+            incomplete.add(pending.next());
+        }
+        for (final String service : incomplete) {
+            results.put(service, TicketResult.error(new TheKeySocketException("deadline exceeded")));
         }
+        return results;
+    }
 
-        return null;
+    /**
+     * Fetch a ticket for the {@link TicketPool}, without retrying if the access_token is rejected.
+     */
+    @Nullable
+    @WorkerThread
+    private String fetchTicket(@NonNull final String guid, @NonNull final String service)
+            throws TheKeySocketException {
+        final Deadline deadline = newDeadline();
+        final String accessToken = getValidAccessToken(guid, 0, deadline);
+        return accessToken != null ? getTicketWithAccessToken(accessToken, service, deadline) : null;
+    }
+
+    @Nullable
+    @WorkerThread
+    private String getTicketWithAccessToken(@NonNull final String accessToken, @NonNull final String service,
+                                            @NonNull final Deadline deadline) throws TheKeySocketException {
+        final Uri ticketUri = getCasUri("api", "oauth", "ticket").buildUpon()
+                .appendQueryParameter(OAUTH_PARAM_ACCESS_TOKEN, accessToken)
+                .appendQueryParameter(PARAM_SERVICE, service).build();
+        return mTicketHedger.execute(() -> executeRequest(HttpRequest.get(ticketUri), deadline, response -> {
+            switch (response.getCode()) {
+                case HTTP_OK:
+                    // parse the json response if we have a valid response
+                    return parseTicket(response.getBody());
+                case HTTP_TOO_MANY_REQUESTS:
+                    throw rateLimited(response, 0);
+                default:
+                    return null;
+            }
+        }), deadline);
+    }
+
+    /**
+     * @return the histogram of ticket request latencies, used to tune
+     * {@link Configuration#hedgeTicketRequests(double)}.
+     */
+    @NonNull
+    @AnyThread
+    public final LatencyHistogram getTicketLatencyHistogram() {
+        return mTicketHedger.getHistogram();
+    }
+
+    // region Server clock
+    /**
+     * @return the current time according to the CAS server clock. All access_token and attribute timestamps are
+     * stored using this clock, so that expiration and staleness checks aren't thrown off by a skewed device clock.
+     */
+    @AnyThread
+    final long currentTimeMillis() {
+        return mServerClock.currentTimeMillis();
+    }
+
+    /**
+     * Convert a timestamp stored using the CAS server clock to the device clock. Unknown (0) times are preserved.
+     */
+    @AnyThread
+    final long toDeviceTime(final long serverTime) {
+        return serverTime != 0 ? serverTime - mServerClock.getOffset() : 0;
+    }
+
+    /**
+     * Convert a timestamp from the device clock to the CAS server clock. Unknown (0) times are preserved.
+     */
+    @AnyThread
+    final long toServerTime(final long deviceTime) {
+        return deviceTime != 0 ? deviceTime + mServerClock.getOffset() : 0;
+    }
+    // endregion Server clock
+
+    // region Token storage
+    @Nullable
+    final String getAccessToken(@NonNull final String guid) {
+        return getAccessToken(guid, 0);
+    }
+
+    /**
+     * @return the cached access_token if it will remain valid for at least minLifetime milliseconds. access_tokens
+     * with an unknown expiration time are always considered valid.
+     */
+    @Nullable
+    private String getAccessToken(@NonNull final String guid, final long minLifetime) {
+        final AccessToken token = getCachedAccessToken(guid, minLifetime);
+        return token != null ? token.token : null;
+    }
+
+    @Nullable
+    final AccessToken getCachedAccessToken(@NonNull final String guid, final long minLifetime) {
+        final AccessToken token = mTokenCache.getAccessToken(guid, this::getStoredAccessToken);
+        return token != null && !token.isExpired(currentTimeMillis() + minLifetime) ? token : null;
+    }
+
+    @Nullable
+    final String getRefreshToken(@NonNull final String guid) {
+        return mTokenCache.getRefreshToken(guid, this::getStoredRefreshToken);
+    }
+
+    @WorkerThread
+    final void removeAccessToken(@NonNull final String guid, @NonNull final String token) {
+        removeStoredAccessToken(guid, token);
+        mTokenCache.invalidate(guid);
+    }
+
+    @WorkerThread
+    final void removeRefreshToken(@NonNull final String guid, @NonNull final String token) {
+        removeStoredRefreshToken(guid, token);
+        mTokenCache.invalidate(guid);
     }
 
+    @WorkerThread
+    final void clearAuthState(@NonNull final String guid, final boolean sendBroadcast) {
+        clearStoredAuthState(guid, sendBroadcast);
+        mTokenCache.invalidate(guid);
+    }
+
+    /**
+     * @return the stored access_token for the specified session, regardless of whether it has expired or not.
+     */
     @Nullable
     @RestrictTo(SUBCLASSES)
-    abstract String getAccessToken(@NonNull String guid);
+    abstract AccessToken getStoredAccessToken(@NonNull String guid);
 
     @Nullable
     @RestrictTo(SUBCLASSES)
-    abstract String getRefreshToken(@NonNull String guid);
+    abstract String getStoredRefreshToken(@NonNull String guid);
+
+    @RestrictTo(SUBCLASSES)
+    abstract void removeStoredAccessToken(@NonNull String guid, @NonNull String token);
+
+    @RestrictTo(SUBCLASSES)
+    abstract void removeStoredRefreshToken(@NonNull String guid, @NonNull String token);
+
+    @WorkerThread
+    @RestrictTo(SUBCLASSES)
+    abstract void clearStoredAuthState(@NonNull String guid, boolean sendBroadcast);
+    // endregion Token storage
+
+    @Nullable
+    @Override
+    @WorkerThread
+    public final String getValidAccessToken(@NonNull final String guid, final long minLifetime)
+            throws TheKeySocketException {
+        return getValidAccessToken(guid, minLifetime, newDeadline());
+    }
+
+    @Nullable
+    @WorkerThread
+    private String getValidAccessToken(@NonNull final String guid, final long minLifetime,
+                                       @NonNull final Deadline deadline) throws TheKeySocketException {
+        // check for an existing accessToken
+        final AccessToken accessToken = getCachedAccessToken(guid, minLifetime);
+        if (accessToken != null) {
+            // have a connection ready for the refresh this access_token will need soon
+            if (accessToken.isExpired(currentTimeMillis() + WARM_UP_EXPIRY_WINDOW)) {
+                warmUp();
+            }
+            return accessToken.token;
+        }
+
+        try {
+            // force the refresh if the current access_token is still valid, but expires too soon
+            final boolean force = minLifetime > 0 && getAccessToken(guid) != null;
+            return awaitAccessTokenRefresh(guid, force, deadline);
+        } catch (final RateLimitExceededApiError e) {
+            // the rate limit gate was already closed when CAS rate limited the refresh, fail fast until it reopens
+            mRateLimitGate.checkOpen();
+            throw new TheKeyRateLimitedException(0);
+        }
+    }
+
+    @Nullable
+    @Override
+    @WorkerThread
+    public final String replaceAccessToken(@NonNull final String guid, @NonNull final String rejectedToken)
+            throws TheKeySocketException {
+        if (rejectedToken.equals(getAccessToken(guid))) {
+            removeAccessToken(guid, rejectedToken);
+        }
+        return getValidAccessToken(guid, 0);
+    }
+
+    /**
+     * Proactively refresh the access_token for the specified session, even if the current access_token is still valid.
+     */
+    @WorkerThread
+    final void refreshAccessTokenInBackground(@NonNull final String guid)
+            throws RateLimitExceededApiError, TheKeySocketException {
+        awaitAccessTokenRefresh(guid, true, newDeadline());
+    }
+
+    @Nullable
+    @WorkerThread
+    private String awaitAccessTokenRefresh(@NonNull final String guid, final boolean force,
+                                           @NonNull final Deadline deadline)
+            throws RateLimitExceededApiError, TheKeySocketException {
+        while (true) {
+            // attach to an in-flight refresh for this session, or start a new refresh if there isn't one
+            final RefreshTask task = new RefreshTask(() -> refreshAccessToken(guid, force, deadline), force);
+            RefreshTask refresh = mPendingRefreshes.putIfAbsent(guid, task);
+            if (refresh == null) {
+                refresh = task;
+                try {
+                    task.run();
+                } finally {
+                    mPendingRefreshes.remove(guid, task);
+                }
+            }
+
+            final String accessToken = waitForRefresh(refresh, deadline);
+
+            // another caller's non-forced refresh may have kept the current access_token, so run our forced refresh
+            if (force && !refresh.force && accessToken != null) {
+                continue;
+            }
+            return accessToken;
+        }
+    }
 
     @Nullable
     @WorkerThread
-    private String getValidAccessToken(@NonNull final String guid, final int depth) throws TheKeySocketException {
-        // prevent infinite recursion
-        if (depth > 2) {
+    private static String waitForRefresh(@NonNull final RefreshTask refresh, @NonNull final Deadline deadline)
+            throws RateLimitExceededApiError, TheKeySocketException {
+        try {
+            // only wait on another caller's refresh for as long as our own deadline allows
+            return refresh.get(deadline.remaining(), TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
             return null;
+        } catch (final TimeoutException e) {
+            throw new TheKeySocketException("deadline exceeded waiting for access_token refresh", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RateLimitExceededApiError) {
+                throw (RateLimitExceededApiError) cause;
+            } else if (cause instanceof TheKeySocketException) {
+                throw (TheKeySocketException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException("unexpected error refreshing access_token", cause);
         }
+    }
 
-        synchronized (getLock(mLockAuth, guid)) {
-            // check for an existing accessToken
+    /**
+     * Refresh the access_token for the specified session. Only a single refresh is ever in-flight for a session, all
+     * concurrent callers share the result of that refresh.
+     *
+     * @return the refreshed access_token, or null if the session is no longer valid.
+     */
+    @Nullable
+    @WorkerThread
+    private String refreshAccessToken(@NonNull final String guid, final boolean force,
+                                      @NonNull final Deadline deadline) throws TheKeyApiError, TheKeySocketException {
+        // another refresh may have completed since the caller checked for an accessToken
+        if (!force) {
             final String accessToken = getAccessToken(guid);
             if (accessToken != null) {
                 return accessToken;
             }
+        }
 
-            // try fetching a new access_token using a refresh_token
-            final String refreshToken = getRefreshToken(guid);
-            if (refreshToken != null) {
-                try {
-                    if (processRefreshTokenGrant(guid, refreshToken)) {
-                        return getValidAccessToken(guid, depth + 1);
-                    }
-                } catch (final RateLimitExceededApiError e) {
-                    try {
-                        Thread.sleep(e.getRetryAfter() * 1000);
-                        return getValidAccessToken(guid, depth + 1);
-                    } catch (InterruptedException ignored) {
-                        Thread.currentThread().interrupt();
-                        return null;
-                    }
-                } catch (final TheKeyApiError ignored) {
+        // try fetching a new access_token using a refresh_token
+        final String refreshToken = getRefreshToken(guid);
+        if (refreshToken != null) {
+            try {
+                if (processRefreshTokenGrant(guid, refreshToken, deadline)) {
+                    return getAccessToken(guid);
                 }
-
-                // the refresh_token isn't valid anymore
-                removeRefreshToken(guid, refreshToken);
+            } catch (final RateLimitExceededApiError e) {
+                // let the callers wait out the rate limit
+                throw e;
+            } catch (final TheKeyApiError ignored) {
             }
 
-            // no valid access_token was found, clear auth state
-            clearAuthState(guid, true);
+            // the refresh_token isn't valid anymore
+            removeRefreshToken(guid, refreshToken);
+        } else if (force) {
+            // there is nothing to refresh with, so leave the current access_token alone
+            return getAccessToken(guid);
         }
 
+        // no valid access_token was found, clear auth state
+        clearAuthState(guid, true);
         return null;
     }
 
@@ -525,16 +983,6 @@ public abstract class TheKeyImpl implements TheKey {
         AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> clearAuthState(guid, true));
     }
 
-    @RestrictTo(SUBCLASSES)
-    abstract void removeAccessToken(@NonNull String guid, @NonNull String token);
-
-    @RestrictTo(SUBCLASSES)
-    abstract void removeRefreshToken(@NonNull String guid, @NonNull String token);
-
-    @WorkerThread
-    @RestrictTo(SUBCLASSES)
-    abstract void clearAuthState(@NonNull String guid, boolean sendBroadcast);
-
     @Override
     @WorkerThread
     public final String processCodeGrant(@NonNull final String code, @NonNull final Uri redirectUri,
@@ -552,11 +1000,11 @@ public abstract class TheKeyImpl implements TheKey {
         }
 
         // perform the token api request and process the response
-        final JSONObject resp = sendTokenApiRequest(params);
-        if (resp != null) {
-            final String guid = resp.optString(JSON_THEKEY_GUID, null);
+        final Grants grants = sendTokenApiRequest(params, newDeadline());
+        if (grants != null) {
+            final String guid = grants.guid;
             if (guid != null) {
-                if (storeGrants(guid, resp)) {
+                if (processGrants(guid, grants)) {
                     // clear any dangling code verifiers
                     clearCodeVerifiers();
 
@@ -582,11 +1030,11 @@ public abstract class TheKeyImpl implements TheKey {
         params.put(PARAM_PASSWORD, password);
 
         // perform the token api request and process the response
-        final JSONObject resp = sendTokenApiRequest(params);
-        if (resp != null) {
-            final String guid = resp.optString(JSON_THEKEY_GUID, null);
+        final Grants grants = sendTokenApiRequest(params, newDeadline());
+        if (grants != null) {
+            final String guid = grants.guid;
             if (guid != null) {
-                if (storeGrants(guid, resp)) {
+                if (processGrants(guid, grants)) {
                     // return the guid this grant was for
                     return guid;
                 }
@@ -597,7 +1045,8 @@ public abstract class TheKeyImpl implements TheKey {
     }
 
     @WorkerThread
-    private boolean processRefreshTokenGrant(@NonNull final String guid, @NonNull final String refreshToken)
+    private boolean processRefreshTokenGrant(@NonNull final String guid, @NonNull final String refreshToken,
+                                             @NonNull final Deadline deadline)
             throws TheKeyApiError, TheKeySocketException {
         // build the request params
         final Map<String, String> params = new HashMap<>();
@@ -606,65 +1055,223 @@ public abstract class TheKeyImpl implements TheKey {
         params.put(PARAM_REFRESH_TOKEN, refreshToken);
 
         // perform the token api request and process the response
-        final JSONObject resp = sendTokenApiRequest(params);
-        if (resp != null) {
-            return storeGrants(guid, resp);
+        final Grants grants = sendTokenApiRequest(params, deadline);
+        if (grants != null) {
+            return processGrants(guid, grants);
         }
         return false;
     }
 
-    @Nullable
-    private JSONObject sendTokenApiRequest(@NonNull final Map<String, String> params)
-            throws TheKeyApiError, TheKeySocketException {
-        final Uri tokenUri = getCasUri("api", "oauth", "token");
+    private boolean processGrants(@NonNull final String guid, @NonNull final Grants grants) {
+        final boolean stored = storeGrants(guid, grants);
 
-        final int currTrafficTag = TrafficStats.getThreadStatsTag();
-        TrafficStats.setThreadStatsTag(mConfig.mTrafficTag);
+        // storing grants can replace the tokens of any session, so flush all cached tokens
+        mTokenCache.invalidateAll();
+        if (!stored) {
+            return false;
+        }
 
-        HttpsURLConnection conn = null;
+        // schedule a proactive refresh of the new access_token
+        if (mRefreshScheduler != null && grants.accessToken != null) {
+            mRefreshScheduler.schedule(guid, grants.expiresIn * 1000);
+        }
+
+        // prefetch tickets using the new grants
+        if (mTicketPool != null) {
+            mTicketPool.prefetch(guid);
+        }
+        return true;
+    }
+
+    @Nullable
+    private Grants sendTokenApiRequest(@NonNull final Map<String, String> params, @NonNull final Deadline deadline)
+            throws TheKeyApiError, TheKeySocketException {
+        // convert params into request data
+        final Uri.Builder dataBuilder = new Uri.Builder();
+        for (final Map.Entry<String, String> entry : params.entrySet()) {
+            dataBuilder.appendQueryParameter(entry.getKey(), entry.getValue());
+        }
+        final byte[] data;
         try {
-            // convert params into request data
-            final Uri.Builder dataBuilder = new Uri.Builder();
-            for (final Map.Entry<String, String> entry : params.entrySet()) {
-                dataBuilder.appendQueryParameter(entry.getKey(), entry.getValue());
-            }
-            final byte[] data = dataBuilder.build().getQuery().getBytes("UTF-8");
-
-            // connect & send request
-            conn = (HttpsURLConnection) new URL(tokenUri.toString()).openConnection();
-            conn.setDoOutput(true);
-            conn.addRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-            conn.setFixedLengthStreamingMode(data.length);
-            conn.getOutputStream().write(data);
-
-            // if it's a successful request, return the parsed JSON
-            switch (conn.getResponseCode()) {
+            data = dataBuilder.build().getQuery().getBytes("UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new RuntimeException("Unsupported encoding??? this shouldn't happen", e);
+        }
+
+        final HttpRequest request =
+                HttpRequest.post(getCasUri("api", "oauth", "token"), "application/x-www-form-urlencoded", data);
+        return executeRequest(request, deadline, response -> {
+            switch (response.getCode()) {
                 case HTTP_OK:
-                    return parseJsonResponse(conn.getInputStream());
+                    // if it's a successful request, return the parsed grants
+                    return parseGrants(response.getBody());
                 case HTTP_BAD_REQUEST:
+                    throw TheKeyApiError.parse(HTTP_BAD_REQUEST, parseJsonObject(response.getBody()));
                 case HTTP_TOO_MANY_REQUESTS:
-                    throw TheKeyApiError.parse(conn.getResponseCode(), parseJsonResponse(conn.getErrorStream()));
+                    final TheKeyApiError error =
+                            TheKeyApiError.parse(HTTP_TOO_MANY_REQUESTS, parseJsonObject(response.getBody()));
+
+                    // close the rate limit gate, falling back to the retry_after in the response body
+                    final Integer retryAfter = error instanceof RateLimitExceededApiError ?
+                            ((RateLimitExceededApiError) error).getRetryAfter() : null;
+                    rateLimited(response, retryAfter != null ? retryAfter * 1000L : 0);
+                    throw error;
                 default:
+                    return null;
             }
+        });
+    }
+
+    // region HTTP requests
+    /**
+     * @return a new {@link Deadline} for a blocking API call, using the configured request deadline.
+     */
+    @NonNull
+    private Deadline newDeadline() {
+        return Deadline.after(mConfig.mRequestDeadline);
+    }
+
+    private interface ResponseHandler<T, E extends Exception> {
+        @Nullable
+        T handleResponse(@NonNull HttpResponse response) throws IOException, E;
+    }
+
+    /**
+     * Send a request to the CAS server using the configured {@link HttpTransport}. All requests to CAS go through
+     * this method, which takes care of the rate limit gate, traffic stats tagging, gzip negotiation, server clock
+     * tracking and closing the response once it has been handled.
+     *
+     * Idempotent requests that fail with a transient network error are retried according to the configured
+     * {@link RetryPolicy}, as long as the deadline allows.
+     */
+    @Nullable
+    @WorkerThread
+    private <T, E extends Exception> T executeRequest(@NonNull final HttpRequest request,
+                                                      @NonNull final Deadline deadline,
+                                                      @NonNull final ResponseHandler<T, E> handler)
+            throws E, TheKeySocketException {
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            try {
+                return executeRequestOnce(request, deadline, handler);
+            } catch (final TheKeySocketException e) {
+                // rate limits and spent deadlines are never retried
+                throw e;
+            } catch (final IOException e) {
+                final long delay =
+                        request.isIdempotent() ? mRetryPolicy.getRetryDelay(request, attempt, e) : RetryPolicy.NO_RETRY;
+                if (delay < 0 || delay >= deadline.remaining()) {
+                    throw new TheKeySocketException("connect error", e);
+                }
+
+                Timber.tag("TheKey").d(e, "retrying request in %dms", delay);
+                try {
+                    Thread.sleep(delay);
+                } catch (final InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new TheKeySocketException("interrupted", e);
+                }
+            }
+        }
+    }
+
+    @Nullable
+    @WorkerThread
+    private <T, E extends Exception> T executeRequestOnce(@NonNull final HttpRequest request,
+                                                          @NonNull final Deadline deadline,
+                                                          @NonNull final ResponseHandler<T, E> handler)
+            throws E, IOException {
+        // fail fast if CAS is currently rate limiting us, the deadline has been spent or CAS appears to be down
+        mRateLimitGate.checkOpen();
+        final long timeout = deadline.timeout();
+        mCircuitBreaker.acquire();
+
+        final int currTrafficTag = TrafficStats.getThreadStatsTag();
+        TrafficStats.setThreadStatsTag(mConfig.mTrafficTag);
+
+        HttpResponse response = null;
+        try {
+            final long requestTime = System.currentTimeMillis();
+            boolean success = false;
+            try {
+                response = GzipHttpResponse.wrap(
+                        mTransport.execute(GzipHttpResponse.acceptGzip(request).timeout(timeout)));
+                success = response.getCode() < HTTP_INTERNAL_ERROR;
+            } finally {
+                mCircuitBreaker.onResult(success);
+            }
+            mServerClock.update(HttpHeaderUtils.parseDate(response.getHeader(HEADER_DATE)), requestTime);
+
+            return handler.handleResponse(response);
         } catch (final MalformedURLException e) {
-            throw new RuntimeException("invalid CAS URL", e);
-        } catch (final UnsupportedEncodingException e) {
-            throw new RuntimeException("Unsupported encoding??? this shouldn't happen", e);
-        } catch (final IOException e) {
-            throw new TheKeySocketException(e);
+            throw new IllegalStateException("malformed CAS URL", e);
         } finally {
-            if (conn != null) {
-                conn.disconnect();
+            if (response != null) {
+                response.close();
             }
-
             TrafficStats.setThreadStatsTag(currTrafficTag);
         }
+    }
 
-        return null;
+    /**
+     * Open a connection to the CAS server in the background and return it to the connection pool, so that the next
+     * request to CAS doesn't pay for DNS, TCP and TLS setup. This is called automatically when building a login uri
+     * and when an access_token is about to expire. Warm-ups are throttled and skipped while CAS is unavailable.
+     */
+    @AnyThread
+    public final void warmUp() {
+        final long now = SystemClock.elapsedRealtime();
+        final long last = mLastWarmUp.get();
+        if (now - last < WARM_UP_INTERVAL || !mRateLimitGate.isOpen() ||
+                mCircuitBreaker.getState() != CircuitBreaker.State.CLOSED || !mConnectivityMonitor.isConnected()) {
+            return;
+        }
+        if (!mLastWarmUp.compareAndSet(last, now)) {
+            // another thread is already warming up a connection
+            return;
+        }
+
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+            final int currTrafficTag = TrafficStats.getThreadStatsTag();
+            TrafficStats.setThreadStatsTag(mConfig.mTrafficTag);
+            try {
+                mTransport.warmUp(mServer);
+            } catch (final IOException | RuntimeException e) {
+                Timber.tag("TheKey").d(e, "error warming up a connection to CAS");
+            } finally {
+                TrafficStats.setThreadStatsTag(currTrafficTag);
+            }
+        });
     }
 
+    /**
+     * Close the rate limit gate for a rate limited response.
+     *
+     * @param fallbackRetryAfter the cooldown (in milliseconds) to use if the response has no Retry-After header
+     */
+    @NonNull
+    private TheKeyRateLimitedException rateLimited(@NonNull final HttpResponse response,
+                                                   final long fallbackRetryAfter) {
+        long retryAfter = fallbackRetryAfter;
+        final String header = response.getHeader(HEADER_RETRY_AFTER);
+        if (header != null) {
+            try {
+                retryAfter = Long.parseLong(header.trim()) * 1000;
+            } catch (final NumberFormatException e) {
+                // Retry-After can also be an HTTP-date
+                final long date = HttpHeaderUtils.parseDate(header);
+                if (date > 0) {
+                    retryAfter = date - currentTimeMillis();
+                }
+            }
+        }
+        return mRateLimitGate.rateLimited(retryAfter);
+    }
+    // endregion HTTP requests
+
     @RestrictTo(SUBCLASSES)
-    abstract boolean storeGrants(@NonNull String guid, @NonNull JSONObject json);
+    abstract boolean storeGrants(@NonNull String guid, @NonNull Grants grants);
 
     private void migrateAccounts() {
         if (mMigrationSource != null) {
@@ -673,6 +1280,7 @@ public abstract class TheKeyImpl implements TheKey {
                     mMigrationSource.removeMigratingAccount(account);
                 }
             }
+            mTokenCache.invalidateAll();
 
             mMigrationSource = null;
         }
@@ -691,7 +1299,7 @@ public abstract class TheKeyImpl implements TheKey {
     @RestrictTo(SUBCLASSES)
     final MigratingAccount getMigratingAccount(@NonNull final String guid) {
         final MigratingAccount account = new MigratingAccount(guid);
-        account.accessToken = getAccessToken(guid);
+        account.accessToken = getCachedAccessToken(guid, 0);
         account.refreshToken = getRefreshToken(guid);
         account.attributes = getCachedAttributes(guid);
         return account;
@@ -751,45 +1359,12 @@ public abstract class TheKeyImpl implements TheKey {
         }
     }
 
-    @NonNull
-    private JSONObject parseJsonResponse(@Nullable final InputStream response) throws IOException {
-        if (response == null) {
-            throw new IOException("no data in response from The Key");
-        }
-
-        // read response into string builder
-        final BufferedReader reader = new BufferedReader(new InputStreamReader(response, "UTF-8"));
-        final StringBuilder json = new StringBuilder();
-        String buffer;
-        while ((buffer = reader.readLine()) != null) {
-            json.append(buffer);
-        }
-
-        // parse response as JSON
-        try {
-            return new JSONObject(json.toString());
-        } catch (final JSONException e) {
-            // throw an IOException on error
-            throw new IOException("Invalid JSON response from The Key", e);
-        }
-    }
-
-    @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
-    private static <K> Object getLock(@NonNull final Map<K, Object> locks, @NonNull final K key) {
-        synchronized (locks) {
-            if (!locks.containsKey(key)) {
-                locks.put(key, new Object());
-            }
-            return locks.get(key);
-        }
-    }
-
     @RestrictTo(LIBRARY_GROUP)
     static final class MigratingAccount {
         @NonNull
         final String guid;
         @Nullable
-        String accessToken;
+        AccessToken accessToken;
         @Nullable
         String refreshToken;
         @NonNull
@@ -831,12 +1406,44 @@ public abstract class TheKeyImpl implements TheKey {
         @Nullable
         final Configuration mMigrationSource;
 
+        final long mAccessTokenRefreshMargin;
+
+        @Nullable
+        final HttpTransport mTransport;
+
+        final long mRequestDeadline;
+
+        @Nullable
+        final RetryPolicy mRetryPolicy;
+
+        @Nullable
+        final CircuitBreaker mCircuitBreaker;
+
+        @Nullable
+        final ConnectivitySource mConnectivitySource;
+
+        final double mTicketHedgePercentile;
+
+        @NonNull
+        final String[] mPrefetchTicketServices;
+        final long mPrefetchTicketTtl;
+
+        @NonNull
+        final FreshnessPolicy mFreshnessPolicy;
+
         @SuppressWarnings("checkstyle:ParameterNumber")
         private Configuration(@Nullable final Uri server, final long id, @Nullable final String accountType,
                               @Nullable final Uri redirectUri, final int trafficTag,
                               @Nullable final EventsManager eventsManager,
                               @Nullable final TheKeyService[] services,
-                              @Nullable final Configuration migrationSource) {
+                              @Nullable final Configuration migrationSource, final long refreshMargin,
+                              @Nullable final HttpTransport transport, final long requestDeadline,
+                              @Nullable final RetryPolicy retryPolicy,
+                              @Nullable final CircuitBreaker circuitBreaker,
+                              @Nullable final ConnectivitySource connectivitySource,
+                              final double ticketHedgePercentile,
+                              @Nullable final String[] prefetchTicketServices,
+                              @Nullable final FreshnessPolicy freshnessPolicy, final long prefetchTicketTtl) {
             mServer = server != null ? server : CAS_SERVER;
             mClientId = id;
             mAccountType = accountType;
@@ -845,11 +1452,23 @@ public abstract class TheKeyImpl implements TheKey {
             mServices = services != null ? services : new TheKeyService[0];
             mEventsManager = eventsManager;
             mMigrationSource = migrationSource;
+            mAccessTokenRefreshMargin = refreshMargin;
+            mTransport = transport;
+            mRequestDeadline = requestDeadline;
+            mRetryPolicy = retryPolicy;
+            mCircuitBreaker = circuitBreaker;
+            mConnectivitySource = connectivitySource;
+            mTicketHedgePercentile = ticketHedgePercentile;
+            mPrefetchTicketServices = prefetchTicketServices != null ? prefetchTicketServices : new String[0];
+            mFreshnessPolicy = freshnessPolicy != null ? freshnessPolicy : FreshnessPolicy.DEFAULT;
+            mPrefetchTicketTtl = prefetchTicketTtl;
         }
 
         @NonNull
         public static Configuration base() {
-            return new Configuration(null, INVALID_CLIENT_ID, null, null, DEFAULT_TRAFFIC_STATS_TAG, null, null, null);
+            return new Configuration(null, INVALID_CLIENT_ID, null, null, DEFAULT_TRAFFIC_STATS_TAG, null, null, null,
+                                     DEFAULT_ACCESS_TOKEN_REFRESH_MARGIN, null, DEFAULT_REQUEST_DEADLINE, null, null,
+                                     null, 0, null, null, DEFAULT_PREFETCH_TICKET_TTL);
         }
 
         @NonNull
@@ -860,19 +1479,28 @@ public abstract class TheKeyImpl implements TheKey {
         @NonNull
         public Configuration server(@Nullable final Uri uri) {
             return new Configuration(uri, mClientId, mAccountType, mDefaultRedirectUri, mTrafficTag, mEventsManager,
-                                     mServices, mMigrationSource);
+                                     mServices, mMigrationSource, mAccessTokenRefreshMargin, mTransport,
+                                     mRequestDeadline, mRetryPolicy, mCircuitBreaker, mConnectivitySource,
+                                     mTicketHedgePercentile, mPrefetchTicketServices, mFreshnessPolicy,
+                                     mPrefetchTicketTtl);
         }
 
         @NonNull
         public Configuration accountType(@Nullable final String type) {
             return new Configuration(mServer, mClientId, type, mDefaultRedirectUri, mTrafficTag, mEventsManager,
-                                     mServices, mMigrationSource);
+                                     mServices, mMigrationSource, mAccessTokenRefreshMargin, mTransport,
+                                     mRequestDeadline, mRetryPolicy, mCircuitBreaker, mConnectivitySource,
+                                     mTicketHedgePercentile, mPrefetchTicketServices, mFreshnessPolicy,
+                                     mPrefetchTicketTtl);
         }
 
         @NonNull
         public Configuration clientId(final long id) {
             return new Configuration(mServer, id, mAccountType, mDefaultRedirectUri, mTrafficTag, mEventsManager,
-                                     mServices, mMigrationSource);
+                                     mServices, mMigrationSource, mAccessTokenRefreshMargin, mTransport,
+                                     mRequestDeadline, mRetryPolicy, mCircuitBreaker, mConnectivitySource,
+                                     mTicketHedgePercentile, mPrefetchTicketServices, mFreshnessPolicy,
+                                     mPrefetchTicketTtl);
         }
 
         @NonNull
@@ -883,7 +1511,10 @@ public abstract class TheKeyImpl implements TheKey {
         @NonNull
         public Configuration redirectUri(@Nullable final Uri uri) {
             return new Configuration(mServer, mClientId, mAccountType, uri, mTrafficTag, mEventsManager,
-                                     mServices, mMigrationSource);
+                                     mServices, mMigrationSource, mAccessTokenRefreshMargin, mTransport,
+                                     mRequestDeadline, mRetryPolicy, mCircuitBreaker, mConnectivitySource,
+                                     mTicketHedgePercentile, mPrefetchTicketServices, mFreshnessPolicy,
+                                     mPrefetchTicketTtl);
         }
 
         /**
@@ -893,25 +1524,188 @@ public abstract class TheKeyImpl implements TheKey {
         @Deprecated
         public Configuration eventsManager(@Nullable final EventsManager manager) {
             return new Configuration(mServer, mClientId, mAccountType, mDefaultRedirectUri, mTrafficTag, manager,
-                                     mServices, mMigrationSource);
+                                     mServices, mMigrationSource, mAccessTokenRefreshMargin, mTransport,
+                                     mRequestDeadline, mRetryPolicy, mCircuitBreaker, mConnectivitySource,
+                                     mTicketHedgePercentile, mPrefetchTicketServices, mFreshnessPolicy,
+                                     mPrefetchTicketTtl);
         }
 
         @NonNull
         public Configuration service(@NonNull final TheKeyService service) {
             return new Configuration(mServer, mClientId, mAccountType, mDefaultRedirectUri, mTrafficTag, mEventsManager,
-                                     ArraysKt.plus(mServices, service), mMigrationSource);
+                                     ArraysKt.plus(mServices, service), mMigrationSource, mAccessTokenRefreshMargin,
+                                     mTransport, mRequestDeadline, mRetryPolicy, mCircuitBreaker, mConnectivitySource,
+                                     mTicketHedgePercentile, mPrefetchTicketServices, mFreshnessPolicy,
+                                     mPrefetchTicketTtl);
         }
 
         @NonNull
         public Configuration trafficStatsTag(final int tag) {
             return new Configuration(mServer, mClientId, mAccountType, mDefaultRedirectUri, tag, mEventsManager,
-                                     mServices, mMigrationSource);
+                                     mServices, mMigrationSource, mAccessTokenRefreshMargin, mTransport,
+                                     mRequestDeadline, mRetryPolicy, mCircuitBreaker, mConnectivitySource,
+                                     mTicketHedgePercentile, mPrefetchTicketServices, mFreshnessPolicy,
+                                     mPrefetchTicketTtl);
         }
 
         @NonNull
         public Configuration migrationSource(@Nullable final Configuration source) {
             return new Configuration(mServer, mClientId, mAccountType, mDefaultRedirectUri, mTrafficTag, mEventsManager,
-                                     mServices, source);
+                                     mServices, source, mAccessTokenRefreshMargin, mTransport, mRequestDeadline,
+                                     mRetryPolicy, mCircuitBreaker, mConnectivitySource, mTicketHedgePercentile,
+                                     mPrefetchTicketServices, mFreshnessPolicy, mPrefetchTicketTtl);
+        }
+
+        /**
+         * Set how long before an access_token expires it should be proactively refreshed in the background.
+         *
+         * @param margin the refresh margin in milliseconds, a negative margin disables proactive refreshes.
+         */
+        @NonNull
+        public Configuration accessTokenRefreshMargin(final long margin) {
+            return new Configuration(mServer, mClientId, mAccountType, mDefaultRedirectUri, mTrafficTag, mEventsManager,
+                                     mServices, mMigrationSource, margin, mTransport, mRequestDeadline, mRetryPolicy,
+                                     mCircuitBreaker, mConnectivitySource, mTicketHedgePercentile,
+                                     mPrefetchTicketServices, mFreshnessPolicy, mPrefetchTicketTtl);
+        }
+
+        /**
+         * Set the {@link HttpTransport} used to send requests to the CAS server. Defaults to a
+         * {@link UrlConnectionTransport} that keeps connections alive when not set, use
+         * {@code new UrlConnectionTransport(false)} to opt out of connection reuse.
+         */
+        @NonNull
+        public Configuration transport(@Nullable final HttpTransport transport) {
+            return new Configuration(mServer, mClientId, mAccountType, mDefaultRedirectUri, mTrafficTag, mEventsManager,
+                                     mServices, mMigrationSource, mAccessTokenRefreshMargin, transport,
+                                     mRequestDeadline, mRetryPolicy, mCircuitBreaker, mConnectivitySource,
+                                     mTicketHedgePercentile, mPrefetchTicketServices, mFreshnessPolicy,
+                                     mPrefetchTicketTtl);
+        }
+
+        /**
+         * Set the time budget for blocking API calls such as {@link TheKey#getTicket(String, String)} or
+         * {@link TheKey#loadAttributes(String)}. The budget covers every refresh and request made on behalf of the
+         * call, once it is spent the call fails with a {@link TheKeySocketException}.
+         *
+         * @param timeout the deadline in milliseconds, 0 or less disables the deadline.
+         */
+        @NonNull
+        public Configuration requestDeadline(final long timeout) {
+            return new Configuration(mServer, mClientId, mAccountType, mDefaultRedirectUri, mTrafficTag, mEventsManager,
+                                     mServices, mMigrationSource, mAccessTokenRefreshMargin, mTransport, timeout,
+                                     mRetryPolicy, mCircuitBreaker, mConnectivitySource, mTicketHedgePercentile,
+                                     mPrefetchTicketServices, mFreshnessPolicy, mPrefetchTicketTtl);
+        }
+
+        /**
+         * Set the {@link RetryPolicy} used for requests that fail with a transient network error. Defaults to an
+         * {@link ExponentialBackoffRetryPolicy} when not set, use {@link RetryPolicy#NONE} to disable retries.
+         */
+        @NonNull
+        public Configuration retryPolicy(@Nullable final RetryPolicy policy) {
+            return new Configuration(mServer, mClientId, mAccountType, mDefaultRedirectUri, mTrafficTag, mEventsManager,
+                                     mServices, mMigrationSource, mAccessTokenRefreshMargin, mTransport,
+                                     mRequestDeadline, policy, mCircuitBreaker, mConnectivitySource,
+                                     mTicketHedgePercentile, mPrefetchTicketServices, mFreshnessPolicy,
+                                     mPrefetchTicketTtl);
+        }
+
+        /**
+         * Set the {@link CircuitBreaker} guarding requests to the CAS server. A default {@link CircuitBreaker} is
+         * used when not set, provide your own instance to listen for state changes.
+         */
+        @NonNull
+        public Configuration circuitBreaker(@Nullable final CircuitBreaker breaker) {
+            return new Configuration(mServer, mClientId, mAccountType, mDefaultRedirectUri, mTrafficTag, mEventsManager,
+                                     mServices, mMigrationSource, mAccessTokenRefreshMargin, mTransport,
+                                     mRequestDeadline, mRetryPolicy, breaker, mConnectivitySource,
+                                     mTicketHedgePercentile, mPrefetchTicketServices, mFreshnessPolicy,
+                                     mPrefetchTicketTtl);
+        }
+
+        /**
+         * Set the {@link ConnectivitySource} used to defer background attribute loads while the device is offline.
+         * Defaults to a source backed by the {@link android.net.ConnectivityManager} when not set.
+         */
+        @NonNull
+        public Configuration connectivitySource(@Nullable final ConnectivitySource source) {
+            return new Configuration(mServer, mClientId, mAccountType, mDefaultRedirectUri, mTrafficTag, mEventsManager,
+                                     mServices, mMigrationSource, mAccessTokenRefreshMargin, mTransport,
+                                     mRequestDeadline, mRetryPolicy, mCircuitBreaker, source, mTicketHedgePercentile,
+                                     mPrefetchTicketServices, mFreshnessPolicy, mPrefetchTicketTtl);
+        }
+
+        /**
+         * Enable hedging of ticket requests. When a ticket request hasn't completed within the specified percentile of
+         * observed ticket latencies, a single duplicate request is sent and whichever response arrives first is used.
+         * Ticket latencies are always recorded, see {@link TheKeyImpl#getTicketLatencyHistogram()}.
+         *
+         * @param percentile the latency percentile (e.g. 0.95) after which to hedge, 0 disables hedging (the default).
+         */
+        @NonNull
+        public Configuration hedgeTicketRequests(final double percentile) {
+            return new Configuration(mServer, mClientId, mAccountType, mDefaultRedirectUri, mTrafficTag, mEventsManager,
+                                     mServices, mMigrationSource, mAccessTokenRefreshMargin, mTransport,
+                                     mRequestDeadline, mRetryPolicy, mCircuitBreaker, mConnectivitySource, percentile,
+                                     mPrefetchTicketServices, mFreshnessPolicy, mPrefetchTicketTtl);
+        }
+
+        /**
+         * Keep a small pool of prefetched tickets for the specified service, so that
+         * {@link TheKey#getTicket(String, String)} can usually be served without a round trip to CAS.
+         */
+        @NonNull
+        public Configuration prefetchTickets(@NonNull final String service) {
+            return new Configuration(mServer, mClientId, mAccountType, mDefaultRedirectUri, mTrafficTag, mEventsManager,
+                                     mServices, mMigrationSource, mAccessTokenRefreshMargin, mTransport,
+                                     mRequestDeadline, mRetryPolicy, mCircuitBreaker, mConnectivitySource,
+                                     mTicketHedgePercentile, ArraysKt.plus(mPrefetchTicketServices, service),
+                                     mFreshnessPolicy, mPrefetchTicketTtl);
+        }
+
+        /**
+         * Set how long (in milliseconds) prefetched tickets are kept before they are discarded unused. This should
+         * not exceed the service ticket lifetime configured on the CAS server, defaults to 10 seconds.
+         */
+        @NonNull
+        public Configuration prefetchTicketTtl(final long ttl) {
+            return new Configuration(mServer, mClientId, mAccountType, mDefaultRedirectUri, mTrafficTag, mEventsManager,
+                                     mServices, mMigrationSource, mAccessTokenRefreshMargin, mTransport,
+                                     mRequestDeadline, mRetryPolicy, mCircuitBreaker, mConnectivitySource,
+                                     mTicketHedgePercentile, mPrefetchTicketServices, mFreshnessPolicy, ttl);
+        }
+
+        /**
+         * @return a copy of this configuration that doesn't refresh access_tokens, prefetch tickets or monitor
+         * connectivity in the background.
+         */
+        @NonNull
+        Configuration withoutBackgroundServices() {
+            final ConnectivitySource connectivitySource = new ConnectivitySource() {
+                @Override
+                public boolean isConnected() {
+                    return true;
+                }
+
+                @Override
+                public void setListener(@NonNull final Listener listener) { }
+            };
+            return new Configuration(mServer, mClientId, mAccountType, mDefaultRedirectUri, mTrafficTag, mEventsManager,
+                                     mServices, mMigrationSource, -1, mTransport, mRequestDeadline, mRetryPolicy,
+                                     mCircuitBreaker, connectivitySource, mTicketHedgePercentile, null,
+                                     mFreshnessPolicy, mPrefetchTicketTtl);
+        }
+
+        /**
+         * Set the default {@link FreshnessPolicy} for attributes, defaults to {@link FreshnessPolicy#DEFAULT}.
+         */
+        @NonNull
+        public Configuration freshnessPolicy(@Nullable final FreshnessPolicy policy) {
+            return new Configuration(mServer, mClientId, mAccountType, mDefaultRedirectUri, mTrafficTag, mEventsManager,
+                                     mServices, mMigrationSource, mAccessTokenRefreshMargin, mTransport,
+                                     mRequestDeadline, mRetryPolicy, mCircuitBreaker, mConnectivitySource,
+                                     mTicketHedgePercentile, mPrefetchTicketServices, policy, mPrefetchTicketTtl);
         }
 
         @Override
@@ -933,14 +1727,41 @@ public abstract class TheKeyImpl implements TheKey {
                     (mEventsManager != null ? mEventsManager.equals(that.mEventsManager) :
                             that.mEventsManager == null) &&
                     (mMigrationSource != null ? mMigrationSource.equals(that.mMigrationSource) :
-                            that.mMigrationSource == null);
+                            that.mMigrationSource == null) &&
+                    mAccessTokenRefreshMargin == that.mAccessTokenRefreshMargin &&
+                    (mTransport != null ? mTransport.equals(that.mTransport) : that.mTransport == null) &&
+                    mRequestDeadline == that.mRequestDeadline &&
+                    (mRetryPolicy != null ? mRetryPolicy.equals(that.mRetryPolicy) : that.mRetryPolicy == null) &&
+                    (mCircuitBreaker != null ? mCircuitBreaker.equals(that.mCircuitBreaker) :
+                            that.mCircuitBreaker == null) &&
+                    (mConnectivitySource != null ? mConnectivitySource.equals(that.mConnectivitySource) :
+                            that.mConnectivitySource == null) &&
+                    Double.compare(mTicketHedgePercentile, that.mTicketHedgePercentile) == 0 &&
+                    Arrays.equals(mPrefetchTicketServices, that.mPrefetchTicketServices) &&
+                    mFreshnessPolicy.equals(that.mFreshnessPolicy) &&
+                    mPrefetchTicketTtl == that.mPrefetchTicketTtl;
         }
 
         @Override
         public int hashCode() {
             return Arrays.hashCode(
                     new Object[] {mServer, mClientId, mAccountType, mDefaultRedirectUri, mTrafficTag, mEventsManager,
-                            mMigrationSource});
+                            mMigrationSource, mAccessTokenRefreshMargin, mTransport, mRequestDeadline,
+                            mRetryPolicy, mCircuitBreaker, mConnectivitySource, mTicketHedgePercentile,
+                            mFreshnessPolicy, mPrefetchTicketTtl});
+        }
+    }
+
+    /**
+     * A pending access_token refresh. Forced refreshes always run a refresh_token grant, non-forced refreshes may
+     * return the current access_token.
+     */
+    private static final class RefreshTask extends FutureTask<String> {
+        final boolean force;
+
+        RefreshTask(@NonNull final Callable<String> refresh, final boolean force) {
+            super(refresh);
+            this.force = force;
         }
     }
 
@@ -948,6 +1769,9 @@ public abstract class TheKeyImpl implements TheKey {
         @NonNull
         @Override
         public Uri build() {
+            // the user is about to log in, have a connection ready for the code grant
+            warmUp();
+
             final Uri redirectUri = mRedirectUri != null ? mRedirectUri : getDefaultRedirectUri();
             final String state = mState != null ? mState : generateUrlSafeBase64String(16);
             final String challenge = encodeS256Challenge(generateAndStoreCodeVerifier(state));
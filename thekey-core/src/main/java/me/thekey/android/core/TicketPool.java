@@ -0,0 +1,241 @@
+package me.thekey.android.core;
+
+import android.os.SystemClock;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import me.thekey.android.events.EventsManager;
+import me.thekey.android.exception.TheKeySocketException;
+import timber.log.Timber;
+
+import static androidx.annotation.RestrictTo.Scope.LIBRARY;
+
+/**
+ * Keeps a small number of prefetched service tickets for each session and registered service, so that
+ * {@link TheKeyImpl#getTicket(String, String)} can be served without a round trip to CAS. Tickets are prefetched in
+ * the background when the pool is created and whenever a session is granted new tokens, expire after a configurable
+ * TTL, and are flushed on logout or when the default session changes. Taking a ticket doesn't trigger a refill, so
+ * the pool never fetches more tickets than there are logins and token refreshes.
+ */
+@RestrictTo(LIBRARY)
+final class TicketPool implements EventsManager {
+    interface Fetcher {
+        @Nullable
+        @WorkerThread
+        String fetchTicket(@NonNull String guid, @NonNull String service) throws TheKeySocketException;
+    }
+
+    // the number of tickets to keep for each session & service
+    private static final int POOL_SIZE = 1;
+    private static final long THREAD_KEEP_ALIVE = 60 * 1000;
+
+    @NonNull
+    private final Fetcher mFetcher;
+    @NonNull
+    private final Set<String> mServices;
+    // service tickets are short-lived, don't hand out any that CAS may already consider expired
+    private final long mTicketTtl;
+
+    private final ConcurrentMap<Key, Queue<Ticket>> mTickets = new ConcurrentHashMap<>();
+    private final Set<Key> mPendingRefills = Collections.newSetFromMap(new ConcurrentHashMap<Key, Boolean>());
+    // incremented on every flush to discard tickets fetched before the flush
+    private final AtomicLong mGeneration = new AtomicLong();
+
+    @NonNull
+    private final Executor mExecutor;
+
+    TicketPool(@NonNull final Fetcher fetcher, @NonNull final String[] services, final long ticketTtl) {
+        this(fetcher, services, ticketTtl, newExecutor());
+    }
+
+    @VisibleForTesting
+    TicketPool(@NonNull final Fetcher fetcher, @NonNull final String[] services, final long ticketTtl,
+               @NonNull final Executor executor) {
+        mFetcher = fetcher;
+        mServices = new HashSet<>(Arrays.asList(services));
+        mTicketTtl = ticketTtl;
+        mExecutor = executor;
+    }
+
+    @NonNull
+    private static Executor newExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                1, 1, THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+                    final Thread thread = new Thread(r, "TheKey-TicketPrefetch");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @AnyThread
+    boolean isPooled(@NonNull final String service) {
+        return mServices.contains(service);
+    }
+
+    /**
+     * Take a prefetched ticket from the pool.
+     *
+     * @return a fresh ticket, or null if the pool is empty.
+     */
+    @Nullable
+    @AnyThread
+    String take(@NonNull final String guid, @NonNull final String service) {
+        if (!isPooled(service)) {
+            return null;
+        }
+
+        final Key key = new Key(guid, service);
+        final Queue<Ticket> tickets = mTickets.get(key);
+        String ticket = null;
+        if (tickets != null) {
+            final long now = SystemClock.elapsedRealtime();
+            Ticket candidate;
+            while ((candidate = tickets.poll()) != null) {
+                if (candidate.expireTime > now) {
+                    ticket = candidate.ticket;
+                    break;
+                }
+            }
+        }
+
+        return ticket;
+    }
+
+    /**
+     * Prefetch tickets for every registered service of the specified session in the background.
+     */
+    @AnyThread
+    void prefetch(@NonNull final String guid) {
+        for (final String service : mServices) {
+            refill(new Key(guid, service));
+        }
+    }
+
+    @AnyThread
+    private void refill(@NonNull final Key key) {
+        if (!mPendingRefills.add(key)) {
+            return;
+        }
+
+        mExecutor.execute(() -> {
+            try {
+                fill(key);
+            } finally {
+                mPendingRefills.remove(key);
+            }
+        });
+    }
+
+    @WorkerThread
+    private void fill(@NonNull final Key key) {
+        final long generation = mGeneration.get();
+        Queue<Ticket> tickets = mTickets.get(key);
+        if (tickets == null) {
+            mTickets.putIfAbsent(key, new ConcurrentLinkedQueue<>());
+            tickets = mTickets.get(key);
+        }
+
+        try {
+            while (tickets.size() < POOL_SIZE && generation == mGeneration.get()) {
+                final String ticket = mFetcher.fetchTicket(key.guid, key.service);
+                if (ticket == null) {
+                    return;
+                }
+
+                tickets.add(new Ticket(ticket, SystemClock.elapsedRealtime() + mTicketTtl));
+
+                // the pool was flushed while we were fetching the ticket
+                if (generation != mGeneration.get()) {
+                    tickets.clear();
+                }
+            }
+        } catch (final TheKeySocketException e) {
+            Timber.tag("TheKey").d(e, "error prefetching a service ticket");
+        }
+    }
+
+    @AnyThread
+    void flush() {
+        mGeneration.incrementAndGet();
+        mTickets.clear();
+    }
+
+    // region EventsManager
+    @Override
+    public void logoutEvent(@NonNull final String guid, final boolean changingUser) {
+        flush();
+    }
+
+    @Override
+    public void changeDefaultSessionEvent(@NonNull final String guid) {
+        // keep any tickets already prefetched for the new default session, they were fetched for this login
+        for (final Iterator<Key> keys = mTickets.keySet().iterator(); keys.hasNext();) {
+            if (!guid.equals(keys.next().guid)) {
+                keys.remove();
+            }
+        }
+        prefetch(guid);
+    }
+    // endregion EventsManager
+
+    private static final class Key {
+        @NonNull
+        final String guid;
+        @NonNull
+        final String service;
+
+        Key(@NonNull final String guid, @NonNull final String service) {
+            this.guid = guid;
+            this.service = service;
+        }
+
+        @Override
+        public boolean equals(@Nullable final Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) o;
+            return guid.equals(that.guid) && service.equals(that.service);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * guid.hashCode() + service.hashCode();
+        }
+    }
+
+    private static final class Ticket {
+        @NonNull
+        final String ticket;
+        final long expireTime;
+
+        Ticket(@NonNull final String ticket, final long expireTime) {
+            this.ticket = ticket;
+            this.expireTime = expireTime;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package me.thekey.android.core;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+
+import static androidx.annotation.RestrictTo.Scope.LIBRARY;
+
+/**
+ * In-memory cache of the access_token and refresh_token for each session. Lookups are lock-free, storage is only
+ * consulted when a session's tokens haven't been cached yet or were invalidated.
+ */
+@RestrictTo(LIBRARY)
+final class TokenCache {
+    interface Loader<T> {
+        @Nullable
+        T load(@NonNull String guid);
+    }
+
+    private final Map<String, Entry<AccessToken>> mAccessTokens = new ConcurrentHashMap<>();
+    private final Map<String, Entry<String>> mRefreshTokens = new ConcurrentHashMap<>();
+
+    // incremented on every invalidation to prevent caching values loaded before the invalidation
+    private long mVersion = 0;
+
+    @Nullable
+    @AnyThread
+    AccessToken getAccessToken(@NonNull final String guid, @NonNull final Loader<AccessToken> loader) {
+        return get(mAccessTokens, guid, loader);
+    }
+
+    @Nullable
+    @AnyThread
+    String getRefreshToken(@NonNull final String guid, @NonNull final Loader<String> loader) {
+        return get(mRefreshTokens, guid, loader);
+    }
+
+    @AnyThread
+    synchronized void invalidate(@NonNull final String guid) {
+        mVersion++;
+        mAccessTokens.remove(guid);
+        mRefreshTokens.remove(guid);
+    }
+
+    @AnyThread
+    synchronized void invalidateAll() {
+        mVersion++;
+        mAccessTokens.clear();
+        mRefreshTokens.clear();
+    }
+
+    @Nullable
+    private <T> T get(@NonNull final Map<String, Entry<T>> cache, @NonNull final String guid,
+                      @NonNull final Loader<T> loader) {
+        final Entry<T> entry = cache.get(guid);
+        if (entry != null) {
+            return entry.value;
+        }
+
+        // load the value from storage, and cache it if nothing was invalidated in the meantime
+        final long version = getVersion();
+        final T value = loader.load(guid);
+        synchronized (this) {
+            if (version == mVersion) {
+                cache.put(guid, new Entry<>(value));
+            }
+        }
+        return value;
+    }
+
+    private synchronized long getVersion() {
+        return mVersion;
+    }
+
+    private static final class Entry<T> {
+        @Nullable
+        final T value;
+
+        Entry(@Nullable final T value) {
+            this.value = value;
+        }
+    }
+}
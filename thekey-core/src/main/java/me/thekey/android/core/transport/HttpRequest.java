@@ -0,0 +1,116 @@
+package me.thekey.android.core.transport;
+
+import android.net.Uri;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * An immutable request to be sent by a {@link HttpTransport}.
+ */
+public final class HttpRequest {
+    public static final String METHOD_GET = "GET";
+    public static final String METHOD_HEAD = "HEAD";
+    public static final String METHOD_POST = "POST";
+
+    @NonNull
+    private final String mMethod;
+    @NonNull
+    private final Uri mUrl;
+    @NonNull
+    private final Map<String, String> mHeaders;
+    @Nullable
+    private final String mContentType;
+    @Nullable
+    private final byte[] mBody;
+    private final long mTimeout;
+
+    private HttpRequest(@NonNull final String method, @NonNull final Uri url,
+                        @NonNull final Map<String, String> headers, @Nullable final String contentType,
+                        @Nullable final byte[] body, final long timeout) {
+        mMethod = method;
+        mUrl = url;
+        mHeaders = Collections.unmodifiableMap(headers);
+        mContentType = contentType;
+        mBody = body;
+        mTimeout = timeout;
+    }
+
+    @NonNull
+    public static HttpRequest get(@NonNull final Uri url) {
+        return new HttpRequest(METHOD_GET, url, Collections.<String, String>emptyMap(), null, null, 0);
+    }
+
+    @NonNull
+    public static HttpRequest head(@NonNull final Uri url) {
+        return new HttpRequest(METHOD_HEAD, url, Collections.<String, String>emptyMap(), null, null, 0);
+    }
+
+    @NonNull
+    public static HttpRequest post(@NonNull final Uri url, @NonNull final String contentType,
+                                   @NonNull final byte[] body) {
+        return new HttpRequest(METHOD_POST, url, Collections.<String, String>emptyMap(), contentType, body, 0);
+    }
+
+    @NonNull
+    public HttpRequest header(@NonNull final String name, @NonNull final String value) {
+        final Map<String, String> headers = new LinkedHashMap<>(mHeaders);
+        headers.put(name, value);
+        return new HttpRequest(mMethod, mUrl, headers, mContentType, mBody, mTimeout);
+    }
+
+    /**
+     * @param timeout the maximum time (in milliseconds) the transport should spend executing this request, 0 to use
+     *                the transport's default timeouts.
+     */
+    @NonNull
+    public HttpRequest timeout(final long timeout) {
+        return new HttpRequest(mMethod, mUrl, mHeaders, mContentType, mBody, timeout);
+    }
+
+    @NonNull
+    public String getMethod() {
+        return mMethod;
+    }
+
+    /**
+     * @return true if the request can safely be sent more than once.
+     */
+    public boolean isIdempotent() {
+        return METHOD_GET.equals(mMethod) || METHOD_HEAD.equals(mMethod);
+    }
+
+    @NonNull
+    public Uri getUrl() {
+        return mUrl;
+    }
+
+    @NonNull
+    public Map<String, String> getHeaders() {
+        return mHeaders;
+    }
+
+    @Nullable
+    public String getContentType() {
+        return mContentType;
+    }
+
+    /**
+     * @return the maximum time (in milliseconds) to spend executing this request, or 0 if there is no limit.
+     */
+    public long getTimeout() {
+        return mTimeout;
+    }
+
+    /**
+     * @return the request body. The returned array should not be modified.
+     */
+    @Nullable
+    public byte[] getBody() {
+        return mBody;
+    }
+}
@@ -0,0 +1,27 @@
+package me.thekey.android.core.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A response received by a {@link HttpTransport}. The response must be closed once it has been processed.
+ */
+public interface HttpResponse extends Closeable {
+    int getCode();
+
+    @Nullable
+    String getHeader(@NonNull String name);
+
+    /**
+     * @return the response body, for both successful and error responses.
+     */
+    @NonNull
+    InputStream getBody() throws IOException;
+
+    @Override
+    void close();
+}
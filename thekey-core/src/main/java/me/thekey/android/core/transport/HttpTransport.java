@@ -0,0 +1,39 @@
+package me.thekey.android.core.transport;
+
+import android.net.Uri;
+
+import java.io.IOException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+/**
+ * The transport used to send all requests to the CAS server. A custom transport can be provided using
+ * {@link me.thekey.android.core.TheKeyImpl.Configuration#transport(HttpTransport)}, by default requests are sent using
+ * {@link UrlConnectionTransport}.
+ */
+public interface HttpTransport {
+    /**
+     * Execute the request synchronously. The caller is responsible for closing the returned response.
+     *
+     * @param request the request to execute
+     * @return the response received for the request
+     * @throws IOException if the request could not be sent or no response was received.
+     */
+    @NonNull
+    @WorkerThread
+    HttpResponse execute(@NonNull HttpRequest request) throws IOException;
+
+    /**
+     * Establish a connection to the host of the specified url and return it to the connection pool, so that the next
+     * request to the host doesn't have to wait on DNS, TCP and TLS setup. The default implementation sends a HEAD
+     * request.
+     *
+     * @param url the url to warm up a connection for
+     * @throws IOException if the connection could not be established.
+     */
+    @WorkerThread
+    default void warmUp(@NonNull final Uri url) throws IOException {
+        execute(HttpRequest.head(url)).close();
+    }
+}
@@ -0,0 +1,146 @@
+package me.thekey.android.core.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+/**
+ * The default {@link HttpTransport}, sends requests using {@link HttpURLConnection}.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+    // the most unread response data we will drain to keep a connection alive
+    @VisibleForTesting
+    static final int MAX_DRAIN = 64 * 1024;
+
+    private final boolean mKeepAlive;
+
+    public UrlConnectionTransport() {
+        this(true);
+    }
+
+    /**
+     * @param keepAlive when true, responses are drained and closed instead of disconnected, so that the underlying
+     *                  connection can be reused from the platform keep-alive pool.
+     */
+    public UrlConnectionTransport(final boolean keepAlive) {
+        mKeepAlive = keepAlive;
+    }
+
+    @NonNull
+    @Override
+    @WorkerThread
+    public HttpResponse execute(@NonNull final HttpRequest request) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) new URL(request.getUrl().toString()).openConnection();
+        try {
+            conn.setRequestMethod(request.getMethod());
+            if (request.getTimeout() > 0) {
+                final int timeout = (int) Math.min(request.getTimeout(), Integer.MAX_VALUE);
+                conn.setConnectTimeout(timeout);
+                conn.setReadTimeout(timeout);
+            }
+            for (final Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                conn.addRequestProperty(header.getKey(), header.getValue());
+            }
+
+            // send the request body
+            final byte[] body = request.getBody();
+            if (body != null) {
+                conn.setDoOutput(true);
+                if (request.getContentType() != null) {
+                    conn.addRequestProperty("Content-Type", request.getContentType());
+                }
+                conn.setFixedLengthStreamingMode(body.length);
+                final OutputStream out = conn.getOutputStream();
+                out.write(body);
+                out.close();
+            }
+
+            return new Response(conn, conn.getResponseCode(), mKeepAlive);
+        } catch (final IOException | RuntimeException e) {
+            conn.disconnect();
+            throw e;
+        }
+    }
+
+    private static final class Response implements HttpResponse {
+        @NonNull
+        private final HttpURLConnection mConn;
+        private final int mCode;
+        private final boolean mKeepAlive;
+
+        @Nullable
+        private InputStream mBody;
+
+        Response(@NonNull final HttpURLConnection conn, final int code, final boolean keepAlive) {
+            mConn = conn;
+            mCode = code;
+            mKeepAlive = keepAlive;
+        }
+
+        @Override
+        public int getCode() {
+            return mCode;
+        }
+
+        @Nullable
+        @Override
+        public String getHeader(@NonNull final String name) {
+            return mConn.getHeaderField(name);
+        }
+
+        @NonNull
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                if (mCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                    // error responses (400, 401, 429, etc.) are read from the error stream
+                    final InputStream error = mConn.getErrorStream();
+                    mBody = error != null ? error : new ByteArrayInputStream(new byte[0]);
+                } else {
+                    mBody = mConn.getInputStream();
+                }
+            }
+            return mBody;
+        }
+
+        @Override
+        public void close() {
+            if (!mKeepAlive || !drain()) {
+                mConn.disconnect();
+            }
+        }
+
+        /**
+         * Read and close any remaining response data, which allows the connection to be reused.
+         *
+         * @return true if the response was fully drained, false if the connection can't be reused.
+         */
+        private boolean drain() {
+            try {
+                final InputStream body = getBody();
+                final byte[] buffer = new byte[1024];
+                int drained = 0;
+                int count;
+                while ((count = body.read(buffer)) != -1) {
+                    drained += count;
+                    if (drained > MAX_DRAIN) {
+                        return false;
+                    }
+                }
+                body.close();
+                return true;
+            } catch (final IOException e) {
+                return false;
+            }
+        }
+    }
+}
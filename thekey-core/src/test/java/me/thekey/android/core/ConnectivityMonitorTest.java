@@ -0,0 +1,83 @@
+package me.thekey.android.core;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ConnectivityMonitorTest {
+    private static final String GUID = "GUID";
+    private static final String GUID2 = "GUID2";
+
+    private final FakeConnectivitySource mSource = new FakeConnectivitySource();
+    private final List<String> mLoads = new ArrayList<>();
+    // replay deferred loads synchronously so the test can observe them deterministically
+    private final ConnectivityMonitor mMonitor = new ConnectivityMonitor(mSource, mLoads::add, Runnable::run);
+
+    @Test
+    public void verifyLoadIsNotDeferredWhileConnected() {
+        assertFalse(mMonitor.deferAttributesLoad(GUID));
+
+        mSource.setConnected(false);
+        mSource.setConnected(true);
+        assertTrue(mLoads.isEmpty());
+    }
+
+    @Test
+    public void verifyDeferredLoadsReplayOnReconnect() {
+        mSource.setConnected(false);
+        assertTrue(mMonitor.deferAttributesLoad(GUID));
+        assertTrue(mMonitor.deferAttributesLoad(GUID2));
+        assertTrue(mMonitor.deferAttributesLoad(GUID));
+        assertTrue(mLoads.isEmpty());
+
+        mSource.setConnected(true);
+        assertEquals(Arrays.asList(GUID, GUID2), mLoads);
+
+        // the deferred loads are only replayed once
+        mSource.setConnected(false);
+        mSource.setConnected(true);
+        assertEquals(Arrays.asList(GUID, GUID2), mLoads);
+    }
+
+    @Test
+    public void verifyDeferredLoadsNotReplayedWhileOffline() {
+        mSource.setConnected(false);
+        mMonitor.deferAttributesLoad(GUID);
+
+        mSource.setConnected(false);
+        assertTrue(mLoads.isEmpty());
+    }
+
+    private static final class FakeConnectivitySource implements ConnectivitySource {
+        private boolean mConnected = true;
+        private Listener mListener;
+
+        void setConnected(final boolean connected) {
+            mConnected = connected;
+            mListener.onConnectivityChanged(connected);
+        }
+
+        @Override
+        public boolean isConnected() {
+            return mConnected;
+        }
+
+        @Override
+        public void setListener(@NonNull final Listener listener) {
+            mListener = listener;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package me.thekey.android.core;
+
+import android.os.SystemClock;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class TicketPoolTest {
+    private static final String GUID = "GUID";
+    private static final String GUID2 = "GUID2";
+    private static final String SERVICE = "https://example.com/service";
+    private static final String OTHER_SERVICE = "https://example.com/other";
+    private static final long TTL = 1000;
+
+    private final List<String> mFetches = new ArrayList<>();
+    // run prefetches synchronously so the test can observe the pool deterministically
+    private final TicketPool mPool = new TicketPool((guid, service) -> {
+        mFetches.add(guid);
+        return "ST-" + mFetches.size();
+    }, new String[] {SERVICE}, TTL, Runnable::run);
+
+    @Test
+    public void verifyTakeServesPrefetchedTicket() {
+        mPool.prefetch(GUID);
+        assertEquals(1, mFetches.size());
+
+        assertEquals("ST-1", mPool.take(GUID, SERVICE));
+        assertEquals(1, mFetches.size());
+    }
+
+    @Test
+    public void verifyTakeDoesNotRefill() {
+        mPool.prefetch(GUID);
+        mPool.take(GUID, SERVICE);
+
+        assertNull(mPool.take(GUID, SERVICE));
+        assertEquals(1, mFetches.size());
+    }
+
+    @Test
+    public void verifyUnregisteredServiceIsNotPooled() {
+        mPool.prefetch(GUID);
+
+        assertNull(mPool.take(GUID, OTHER_SERVICE));
+        assertNull(mPool.take(GUID2, SERVICE));
+        assertEquals(1, mFetches.size());
+    }
+
+    @Test
+    public void verifyExpiredTicketIsNotServed() {
+        mPool.prefetch(GUID);
+        SystemClock.sleep(TTL + 1);
+
+        assertNull(mPool.take(GUID, SERVICE));
+    }
+
+    @Test
+    public void verifyLogoutFlushesPool() {
+        mPool.prefetch(GUID);
+        mPool.logoutEvent(GUID, false);
+
+        assertNull(mPool.take(GUID, SERVICE));
+    }
+
+    @Test
+    public void verifyChangeDefaultSessionKeepsNewSessionTickets() {
+        mPool.prefetch(GUID);
+        mPool.prefetch(GUID2);
+        mPool.changeDefaultSessionEvent(GUID2);
+
+        assertNull(mPool.take(GUID, SERVICE));
+        assertEquals("ST-2", mPool.take(GUID2, SERVICE));
+        assertEquals(2, mFetches.size());
+    }
+}
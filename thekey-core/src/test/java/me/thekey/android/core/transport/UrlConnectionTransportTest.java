@@ -0,0 +1,105 @@
+package me.thekey.android.core.transport;
+
+import android.net.Uri;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.tls.HandshakeCertificates;
+import okhttp3.tls.HeldCertificate;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class UrlConnectionTransportTest {
+    private static final String HOST = "localhost";
+    private static final int REQUESTS = 5;
+
+    private final MockWebServer mServer = new MockWebServer();
+    private final UrlConnectionTransport mTransport = new UrlConnectionTransport();
+
+    private SSLSocketFactory mDefaultSocketFactory;
+
+    @Before
+    public void setup() throws Exception {
+        final HeldCertificate certificate = new HeldCertificate.Builder()
+                .addSubjectAlternativeName(HOST)
+                .build();
+        final HandshakeCertificates serverCertificates = new HandshakeCertificates.Builder()
+                .heldCertificate(certificate)
+                .build();
+        final HandshakeCertificates clientCertificates = new HandshakeCertificates.Builder()
+                .addTrustedCertificate(certificate.certificate())
+                .build();
+
+        // UrlConnectionTransport uses the default https configuration, so trust the stub server's certificate
+        mDefaultSocketFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+        HttpsURLConnection.setDefaultSSLSocketFactory(clientCertificates.sslSocketFactory());
+
+        mServer.useHttps(serverCertificates.sslSocketFactory(), false);
+        mServer.start(InetAddress.getByName(HOST), 0);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        mServer.shutdown();
+        HttpsURLConnection.setDefaultSSLSocketFactory(mDefaultSocketFactory);
+    }
+
+    @Test
+    public void verifySequentialRequestsReuseConnection() throws Exception {
+        for (int i = 0; i < REQUESTS; i++) {
+            mServer.enqueue(new MockResponse().setBody("response " + i));
+        }
+
+        for (int i = 0; i < REQUESTS; i++) {
+            // only partially read the response, close() should drain the remainder
+            final HttpResponse response = mTransport.execute(HttpRequest.get(uri()));
+            assertEquals(200, response.getCode());
+            response.getBody().read();
+            response.close();
+        }
+
+        assertEquals(REQUESTS, mServer.getRequestCount());
+        for (int i = 0; i < REQUESTS; i++) {
+            // the sequence number is the index of the request on its connection, so 0 indicates a new connection
+            assertEquals(i, mServer.takeRequest().getSequenceNumber());
+        }
+    }
+
+    @Test
+    public void verifyLargeResponseBodyIsNotDrained() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(new Buffer().write(new byte[UrlConnectionTransport.MAX_DRAIN * 2])));
+        mServer.enqueue(new MockResponse().setBody("response"));
+
+        final HttpResponse large = mTransport.execute(HttpRequest.get(uri()));
+        final InputStream body = large.getBody();
+        body.read();
+        large.close();
+
+        final HttpResponse small = mTransport.execute(HttpRequest.get(uri()));
+        assertEquals(200, small.getCode());
+        small.close();
+
+        assertEquals(0, mServer.takeRequest().getSequenceNumber());
+        assertEquals(0, mServer.takeRequest().getSequenceNumber());
+    }
+
+    private Uri uri() {
+        return Uri.parse(mServer.url("/").toString());
+    }
+}
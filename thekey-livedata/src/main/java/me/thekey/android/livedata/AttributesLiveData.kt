@@ -1,14 +1,11 @@
 package me.thekey.android.livedata
 
 import android.annotation.SuppressLint
-import android.os.AsyncTask
 import androidx.annotation.AnyThread
 import androidx.lifecycle.ComputableLiveData
 import me.thekey.android.Attributes
 import me.thekey.android.TheKey
-import me.thekey.android.exception.TheKeySocketException
 import me.thekey.android.getService
-import timber.log.Timber
 
 @SuppressLint("RestrictedApi")
 internal class AttributesLiveData(
@@ -20,17 +17,10 @@ internal class AttributesLiveData(
     }
 
     private val currentGuid get() = guid ?: thekey.defaultSessionGuid
-    private val loadAttributes = Runnable {
-        try {
-            thekey.loadAttributes(currentGuid)
-        } catch (e: TheKeySocketException) {
-            Timber.tag("TheKey")
-                .d(e, "error loading fresh attributes for AttributesLiveData")
-        }
-    }
 
+    // LiveData never blocks, cached attributes are always delivered while stale attributes are refreshed
     override fun compute() = thekey.getCachedAttributes(currentGuid)
-        .also { if (!it.areValid() || it.areStale()) AsyncTask.THREAD_POOL_EXECUTOR.execute(loadAttributes) }
+        .also { if (thekey.freshnessPolicy.isStale(it)) thekey.refreshAttributesInBackground(currentGuid) }
 
     @AnyThread
     internal fun invalidateFor(guid: String) {
@@ -2,8 +2,6 @@ package me.thekey.android.localbroadcast.loader;
 
 import android.content.Context;
 
-import java.util.Date;
-
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
@@ -17,8 +15,6 @@ import me.thekey.android.localbroadcast.TheKeyBroadcastReceiver;
 import static androidx.annotation.RestrictTo.Scope.LIBRARY;
 
 public final class AttributesLoader extends AsyncTaskLoader<Attributes> {
-    private static final long DEFAULT_MAX_AGE = 24 * 60 * 60 * 1000; /* 1 day */
-
     @NonNull
     private final TheKey mTheKey;
     @NonNull
@@ -26,7 +22,6 @@ public final class AttributesLoader extends AsyncTaskLoader<Attributes> {
     @Nullable
     @RestrictTo(LIBRARY)
     final String mGuid;
-    private final long mMaxAge = DEFAULT_MAX_AGE;
     private boolean mRefresh = false;
 
     public AttributesLoader(@NonNull final Context context, @NonNull final TheKey thekey, @Nullable String guid) {
@@ -66,13 +61,16 @@ public final class AttributesLoader extends AsyncTaskLoader<Attributes> {
         final String guid = getGuid();
         Attributes attrs = mTheKey.getCachedAttributes(guid);
 
-        // check to see if the current attributes are stale
-        if (needRefresh(attrs)) {
+        // block on loading attributes if they are invalid or expired
+        if (mRefresh || mTheKey.getFreshnessPolicy().isExpired(attrs)) {
             try {
                 mTheKey.loadAttributes(guid);
                 attrs = mTheKey.getCachedAttributes(guid);
             } catch (final TheKeySocketException ignored) {
             }
+        } else if (needRefresh(attrs)) {
+            // return the stale attributes now, the attributes loaded broadcast will trigger another load
+            mTheKey.refreshAttributesInBackground(guid);
         }
 
         // return the loaded attributes
@@ -80,8 +78,7 @@ public final class AttributesLoader extends AsyncTaskLoader<Attributes> {
     }
 
     private boolean needRefresh(@NonNull final Attributes attrs) {
-        return mRefresh || !attrs.areValid() ||
-                attrs.getLoadedTime().before(new Date(System.currentTimeMillis() - mMaxAge));
+        return mRefresh || mTheKey.getFreshnessPolicy().isStale(attrs);
     }
 
     @Nullable
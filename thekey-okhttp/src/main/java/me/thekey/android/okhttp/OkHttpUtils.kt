@@ -0,0 +1,15 @@
+package me.thekey.android.okhttp
+
+import me.thekey.android.TheKey
+import okhttp3.Request
+
+internal const val HEADER_AUTHORIZATION = "Authorization"
+internal const val BEARER_PREFIX = "Bearer "
+
+internal fun TheKey.resolveGuid(guid: String?) = guid ?: defaultSessionGuid
+
+internal val Request.bearerToken
+    get() = header(HEADER_AUTHORIZATION)?.takeIf { it.startsWith(BEARER_PREFIX) }?.substring(BEARER_PREFIX.length)
+
+internal fun Request.withBearerToken(token: String) =
+    newBuilder().header(HEADER_AUTHORIZATION, "$BEARER_PREFIX$token").build()
@@ -0,0 +1,32 @@
+package me.thekey.android.okhttp
+
+import me.thekey.android.TheKey
+import okhttp3.Authenticator
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.Route
+
+/**
+ * OkHttp [Authenticator] that replaces a rejected TheKey access_token and replays the request. Concurrent requests
+ * that were rejected with the same access_token share a single refresh of the session.
+ *
+ * @param guid the session to authenticate as, or null to always use the current default session.
+ */
+class TheKeyAuthenticator @JvmOverloads constructor(
+    private val thekey: TheKey,
+    private val guid: String? = null
+) : Authenticator {
+    override fun authenticate(route: Route?, response: Response): Request? {
+        // only retry requests once, and only if we authenticated them
+        if (response.priorResponse() != null) return null
+        val request = response.request()
+        val rejectedToken = request.bearerToken ?: return null
+        val guid = thekey.resolveGuid(guid) ?: return null
+
+        val token = thekey.replaceAccessToken(guid, rejectedToken)
+        return when {
+            token == null || token == rejectedToken -> null
+            else -> request.withBearerToken(token)
+        }
+    }
+}
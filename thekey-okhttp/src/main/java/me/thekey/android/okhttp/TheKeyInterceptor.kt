@@ -0,0 +1,29 @@
+package me.thekey.android.okhttp
+
+import me.thekey.android.TheKey
+import okhttp3.Interceptor
+import okhttp3.Response
+
+private const val DEFAULT_MIN_LIFETIME = 30 * 1000L /* 30 seconds */
+
+/**
+ * OkHttp [Interceptor] that attaches a TheKey access_token as a Bearer token to every request that doesn't already
+ * have an Authorization header. Only add this to clients that talk to servers that should receive the access_token.
+ *
+ * @param guid the session to authenticate as, or null to always use the current default session.
+ * @param minLifetime the minimum remaining lifetime, in milliseconds, of an attached access_token.
+ */
+class TheKeyInterceptor @JvmOverloads constructor(
+    private val thekey: TheKey,
+    private val guid: String? = null,
+    private val minLifetime: Long = DEFAULT_MIN_LIFETIME
+) : Interceptor {
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        if (request.header(HEADER_AUTHORIZATION) != null) return chain.proceed(request)
+
+        val token = thekey.resolveGuid(guid)?.let { thekey.getValidAccessToken(it, minLifetime) }
+            ?: return chain.proceed(request)
+        return chain.proceed(request.withBearerToken(token))
+    }
+}
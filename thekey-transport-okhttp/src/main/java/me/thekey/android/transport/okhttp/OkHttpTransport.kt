@@ -0,0 +1,52 @@
+package me.thekey.android.transport.okhttp
+
+import me.thekey.android.core.transport.HttpRequest
+import me.thekey.android.core.transport.HttpResponse
+import me.thekey.android.core.transport.HttpTransport
+import okhttp3.Authenticator
+import okhttp3.MediaType
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody
+import okhttp3.Response
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+import java.util.concurrent.TimeUnit
+
+/**
+ * [HttpTransport] that sends CAS requests using the app's [OkHttpClient], so that token, ticket and attribute requests
+ * share the client's connection pool and are multiplexed over a single warm HTTP/2 connection when the server
+ * supports it.
+ *
+ * The client's interceptors, authenticator and cache are not used for CAS requests. This prevents an interceptor
+ * that attaches TheKey access_tokens from recursively calling back into TheKey.
+ */
+class OkHttpTransport(client: OkHttpClient) : HttpTransport {
+    private val client = client.newBuilder()
+        .apply {
+            interceptors().clear()
+            networkInterceptors().clear()
+        }
+        .authenticator(Authenticator.NONE)
+        .cache(null)
+        .build()
+
+    override fun execute(request: HttpRequest): HttpResponse {
+        val body = request.body?.let { RequestBody.create(request.contentType?.let { MediaType.parse(it) }, it) }
+        val okRequest = Request.Builder()
+            .url(request.url.toString())
+            .method(request.method, body)
+            .apply { request.headers.forEach { (name, value) -> addHeader(name, value) } }
+            .build()
+        val call = client.newCall(okRequest)
+        if (request.timeout > 0) call.timeout().timeout(request.timeout, TimeUnit.MILLISECONDS)
+        return OkHttpResponse(call.execute())
+    }
+}
+
+private class OkHttpResponse(private val response: Response) : HttpResponse {
+    override fun getCode() = response.code()
+    override fun getHeader(name: String) = response.header(name)
+    override fun getBody(): InputStream = response.body()?.byteStream() ?: ByteArrayInputStream(ByteArray(0))
+    override fun close() = response.close()
+}